@@ -459,6 +459,7 @@ public abstract class AbstractBundle implements Bundle
          getLifecycleInterceptorPlugin().handleStateChange(state, getBundleWrapper());
 
       bundleState.set(state);
+      getBundleManager().bundleStateChanged(this);
 
       // Fire the bundle event
       if (getBundleManager().isFrameworkActive())
@@ -29,6 +29,7 @@ import org.jboss.logging.Logger;
 import org.jboss.modules.Module;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.container.loading.ClassLoadingMetrics;
 import org.jboss.osgi.container.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.container.plugin.ResolverPlugin;
 import org.jboss.osgi.metadata.OSGiMetaData;
@@ -54,6 +55,7 @@ public abstract class AbstractRevision
    private final AbstractBundle bundleState;
    private final OSGiMetaData metadata;
    private XModule resolverModule;
+   private final ClassLoadingMetrics classLoadingMetrics = new ClassLoadingMetrics();
 
    // Cache commonly used plugins
    private final ModuleManagerPlugin moduleManager;
@@ -96,6 +98,11 @@ public abstract class AbstractRevision
       return revisionCount;
    }
 
+   public ClassLoadingMetrics getClassLoadingMetrics()
+   {
+      return classLoadingMetrics;
+   }
+
    public XModule getResolverModule()
    {
       return resolverModule;
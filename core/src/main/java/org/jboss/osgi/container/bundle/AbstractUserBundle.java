@@ -263,6 +263,7 @@ public abstract class AbstractUserBundle extends AbstractBundle
 
          createRevision(dep, revisionCount);
          getResolverPlugin().addModule(getResolverModule());
+         bundleManager.bundleUpdated(this);
       }
       catch (BundleException ex)
       {
@@ -294,9 +295,14 @@ public abstract class AbstractUserBundle extends AbstractBundle
          XModule resModule = rev.getResolverModule();
          getResolverPlugin().removeModule(resModule);
 
-         // Delete the content root file
+         // Remove the module and delete the content root file
          if (rev != currentRev)
          {
+            if (isFragment() == false)
+            {
+               ModuleManagerPlugin moduleManager = bundleManager.getPlugin(ModuleManagerPlugin.class);
+               moduleManager.removeModule(rev.getModuleIdentifier());
+            }
             AbstractUserRevision userRev = (AbstractUserRevision)rev;
             VirtualFile contentRoot = userRev.getContentRoot();
             bundleManager.deleteContentRoot(contentRoot);
@@ -307,6 +313,9 @@ public abstract class AbstractUserBundle extends AbstractBundle
       // Update the resolver module for the current revision
       currentRev.refreshRevision(this, getOSGiMetaData());
       getResolverPlugin().addModule(currentRev.getResolverModule());
+      
+      // Invalidate cached class loading results
+      bundleManager.incrementBundleGeneration();
    }
 
    /**
@@ -21,11 +21,17 @@
 */
 package org.jboss.osgi.container.bundle;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.container.loading.EntryIndex;
+import org.jboss.osgi.container.plugin.BundleStoragePlugin;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.vfs.VirtualFile;
@@ -42,12 +48,46 @@ public abstract class AbstractUserRevision extends AbstractRevision
 {
    static final Logger log = Logger.getLogger(AbstractUserRevision.class);
 
+   // The name of the entry index in the content cache
+   private static final String ENTRY_INDEX_NAME = "entries.index";
+
    private final Deployment deployment;
+   private final String contentKey;
+   private final EntryIndex entryIndex;
 
    AbstractUserRevision(AbstractUserBundle bundleState, Deployment deployment, int revisionCount) throws BundleException
    {
       super(bundleState, deployment.getAttachment(OSGiMetaData.class), revisionCount);
       this.deployment = deployment;
+      BundleStoragePlugin storagePlugin = getBundleManager().getPlugin(BundleStoragePlugin.class);
+      this.contentKey = storagePlugin.getContentKey(getContentRoot());
+      this.entryIndex = createEntryIndex();
+   }
+
+   private EntryIndex createEntryIndex()
+   {
+      VirtualFile contentRoot = getContentRoot();
+      BundleStoragePlugin storagePlugin = getBundleManager().getPlugin(BundleStoragePlugin.class);
+      File indexFile = (contentKey != null ? storagePlugin.getContentCacheFile(contentKey, ENTRY_INDEX_NAME) : null);
+      try
+      {
+         EntryIndex result = null;
+         if (indexFile != null && indexFile.exists())
+            result = EntryIndex.load(indexFile);
+
+         if (result == null)
+         {
+            result = EntryIndex.create(contentRoot);
+            if (indexFile != null)
+               result.store(indexFile);
+         }
+         return result;
+      }
+      catch (IOException ex)
+      {
+         log.debug("Cannot create entry index for: " + contentRoot, ex);
+         return null;
+      }
    }
 
    public Deployment getDeployment()
@@ -65,10 +105,33 @@ public abstract class AbstractUserRevision extends AbstractRevision
       return deployment.getRoot();
    }
 
+   /**
+    * Get the key of the content in the content cache
+    * @return The key or null if the content root is not backed by a physical file
+    */
+   public String getContentKey()
+   {
+      return contentKey;
+   }
+
+   /**
+    * Get the index of the entries in the content root 
+    * @return The index or null if the content could not be indexed
+    */
+   public EntryIndex getEntryIndex()
+   {
+      return entryIndex;
+   }
+
    @Override
    public Enumeration<String> getEntryPaths(String path)
    {
       getBundleState().assertNotUninstalled();
+      if (entryIndex != null)
+      {
+         List<String> entryPaths = entryIndex.getEntryPaths(path);
+         return entryPaths != null ? Collections.enumeration(entryPaths) : null;
+      }
       try
       {
          return getContentRoot().getEntryPaths(path);
@@ -83,6 +146,8 @@ public abstract class AbstractUserRevision extends AbstractRevision
    public URL getEntry(String path)
    {
       getBundleState().assertNotUninstalled();
+      if (entryIndex != null && entryIndex.hasEntry(path) == false)
+         return null;
       try
       {
          VirtualFile child = getContentRoot().getChild(path);
@@ -101,6 +166,18 @@ public abstract class AbstractUserRevision extends AbstractRevision
       getBundleState().assertNotUninstalled();
       try
       {
+         if (entryIndex != null)
+         {
+            List<String> entries = entryIndex.findEntries(path, pattern, recurse);
+            if (entries.isEmpty())
+               return null;
+
+            VirtualFile contentRoot = getContentRoot();
+            List<URL> result = new ArrayList<URL>(entries.size());
+            for (String entry : entries)
+               result.add(contentRoot.getChild(entry).toURL());
+            return Collections.enumeration(result);
+         }
          return getContentRoot().findEntries(path, pattern, recurse);
       }
       catch (IOException ex)
@@ -27,15 +27,29 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.container.plugin.BundleDeploymentPlugin;
 import org.jboss.osgi.container.plugin.BundleStoragePlugin;
+import org.jboss.osgi.container.plugin.ClassLoaderLeakDetectorPlugin;
+import org.jboss.osgi.container.plugin.ClassLoadingMetricsPlugin;
+import org.jboss.osgi.container.plugin.ClassLoadingProfilePlugin;
 import org.jboss.osgi.container.plugin.DeployerServicePlugin;
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.container.plugin.LifecycleInterceptorPlugin;
@@ -49,6 +63,9 @@ import org.jboss.osgi.container.plugin.StartLevelPlugin;
 import org.jboss.osgi.container.plugin.SystemPackagesPlugin;
 import org.jboss.osgi.container.plugin.internal.BundleDeploymentPluginImpl;
 import org.jboss.osgi.container.plugin.internal.BundleStoragePluginImpl;
+import org.jboss.osgi.container.plugin.internal.ClassLoaderLeakDetectorPluginImpl;
+import org.jboss.osgi.container.plugin.internal.ClassLoadingMetricsPluginImpl;
+import org.jboss.osgi.container.plugin.internal.ClassLoadingProfilePluginImpl;
 import org.jboss.osgi.container.plugin.internal.DeployerServicePluginImpl;
 import org.jboss.osgi.container.plugin.internal.FrameworkEventsPluginImpl;
 import org.jboss.osgi.container.plugin.internal.LifecycleInterceptorPluginImpl;
@@ -82,12 +99,32 @@ public class BundleManager
    // Provide logging
    private final Logger log = Logger.getLogger(BundleManager.class);
    
+   // Sorts bundles by version, highest version first
+   private static final Comparator<AbstractBundle> VERSION_COMPARATOR = new Comparator<AbstractBundle>()
+   {
+      @Override
+      public int compare(AbstractBundle b1, AbstractBundle b2)
+      {
+         return b2.getVersion().compareTo(b1.getVersion());
+      }
+   };
+   
    // The BundleId generator 
    private AtomicLong identityGenerator = new AtomicLong();
+   // The generation counter that changes when bundles are installed, resolved or refreshed
+   private AtomicLong bundleGeneration = new AtomicLong();
    // The sytem bundle
    private SystemBundle systemBundle;
    // Maps bundleId to Bundle
    private Map<Long, AbstractBundle> bundleMap = Collections.synchronizedMap(new LinkedHashMap<Long, AbstractBundle>());
+   // The immutable snapshot of the registered bundles, replaced under the manager's lock
+   private volatile BundleSnapshot snapshot = new BundleSnapshot(new AbstractBundle[0]);
+   // The generation counter that changes when the state of a bundle changes
+   private final AtomicLong stateGeneration = new AtomicLong();
+   // Maps a location to the most recently added bundle with that location
+   private final ConcurrentMap<String, AbstractBundle> locationIndex = new ConcurrentHashMap<String, AbstractBundle>();
+   // Maps a symbolic name to the bundles with that name, highest version first. Modified under its own lock
+   private final ConcurrentMap<String, AbstractBundle[]> symbolicNameIndex = new ConcurrentHashMap<String, AbstractBundle[]>();
    /// The registered plugins 
    private Map<Class<? extends Plugin>, Plugin> plugins = new LinkedHashMap<Class<? extends Plugin>, Plugin>();
    // The Framework state
@@ -99,6 +136,9 @@ public class BundleManager
       // [TODO] Externalize plugin registration
       plugins.put(BundleDeploymentPlugin.class, new BundleDeploymentPluginImpl(this));
       plugins.put(BundleStoragePlugin.class, new BundleStoragePluginImpl(this));
+      plugins.put(ClassLoaderLeakDetectorPlugin.class, new ClassLoaderLeakDetectorPluginImpl(this));
+      plugins.put(ClassLoadingMetricsPlugin.class, new ClassLoadingMetricsPluginImpl(this));
+      plugins.put(ClassLoadingProfilePlugin.class, new ClassLoadingProfilePluginImpl(this));
       plugins.put(DeployerServicePlugin.class, new DeployerServicePluginImpl(this));
       plugins.put(FrameworkEventsPlugin.class, new FrameworkEventsPluginImpl(this));
       plugins.put(LifecycleInterceptorPlugin.class, new LifecycleInterceptorPluginImpl(this));
@@ -124,6 +164,38 @@ public class BundleManager
       return identityGenerator.incrementAndGet();
    }
 
+   /**
+    * Get the current bundle generation. 
+    * 
+    * The generation changes whenever a bundle is installed, resolved or refreshed. 
+    * Cached class loading results that depend on the set of available bundles must 
+    * be discarded when the generation changes.
+    */
+   public long getBundleGeneration()
+   {
+      return bundleGeneration.get();
+   }
+
+   /**
+    * Increment the bundle generation.
+    */
+   public void incrementBundleGeneration()
+   {
+      bundleGeneration.incrementAndGet();
+   }
+
+   /**
+    * Get the id that identifies this framework in management interfaces.
+    * 
+    * The id is the path of the storage area. It is stable across framework restarts
+    * and distinguishes frameworks that run concurrently in the same VM.
+    */
+   public String getFrameworkId()
+   {
+      BundleStoragePlugin plugin = getPlugin(BundleStoragePlugin.class);
+      return plugin.getStorageDir(getSystemBundle()).getParent();
+   }
+
    public SystemBundle getSystemBundle()
    {
       return systemBundle;
@@ -156,10 +228,16 @@ public class BundleManager
 
       // Register the bundle with the manager
       bundleMap.put(bundleId, bundleState);
+      addToSnapshot(bundleState);
+      locationIndex.put(bundleState.getLocation(), bundleState);
+      addToSymbolicNameIndex(bundleState);
       bundleState.changeState(Bundle.INSTALLED);
       
       // Add the bundle to the resolver
       bundleState.addToResolver();
+      
+      // Invalidate cached class loading results
+      incrementBundleGeneration();
    }
 
    void removeBundle(AbstractBundle bundleState)
@@ -167,6 +245,91 @@ public class BundleManager
       log.debug("Remove bundle: " + bundleState);
       bundleState.removeFromResolver();
       bundleMap.remove(bundleState.getBundleId());
+      removeFromSnapshot(bundleState);
+      locationIndex.remove(bundleState.getLocation(), bundleState);
+      removeFromSymbolicNameIndex(bundleState);
+   }
+
+   private synchronized void addToSnapshot(AbstractBundle bundleState)
+   {
+      BundleSnapshot current = snapshot;
+      int size = current.bundles.length;
+      AbstractBundle[] bundles = new AbstractBundle[size + 1];
+      System.arraycopy(current.bundles, 0, bundles, 0, size);
+      bundles[size] = bundleState;
+      snapshot = new BundleSnapshot(bundles);
+   }
+
+   private synchronized void removeFromSnapshot(AbstractBundle bundleState)
+   {
+      BundleSnapshot current = snapshot;
+      int index = current.indexOf(bundleState);
+      if (index < 0)
+         return;
+
+      int size = current.bundles.length;
+      AbstractBundle[] bundles = new AbstractBundle[size - 1];
+      System.arraycopy(current.bundles, 0, bundles, 0, index);
+      System.arraycopy(current.bundles, index + 1, bundles, index, size - index - 1);
+      snapshot = new BundleSnapshot(bundles);
+   }
+
+   /**
+    * Called when the state of a bundle has changed.
+    * The bundles keep their own state, only the filtered bundle lists become stale.
+    */
+   void bundleStateChanged(AbstractBundle bundleState)
+   {
+      stateGeneration.incrementAndGet();
+   }
+
+   /**
+    * Called when a bundle was updated, which may have changed its version
+    */
+   void bundleUpdated(AbstractBundle bundleState)
+   {
+      removeFromSymbolicNameIndex(bundleState);
+      addToSymbolicNameIndex(bundleState);
+   }
+
+   private void addToSymbolicNameIndex(AbstractBundle bundleState)
+   {
+      String symbolicName = bundleState.getSymbolicName();
+      if (symbolicName == null)
+         return;
+
+      synchronized (symbolicNameIndex)
+      {
+         AbstractBundle[] bundles = symbolicNameIndex.get(symbolicName);
+         int size = (bundles != null ? bundles.length : 0);
+         AbstractBundle[] aux = new AbstractBundle[size + 1];
+         if (bundles != null)
+            System.arraycopy(bundles, 0, aux, 0, size);
+         aux[size] = bundleState;
+         Arrays.sort(aux, VERSION_COMPARATOR);
+         symbolicNameIndex.put(symbolicName, aux);
+      }
+   }
+
+   private void removeFromSymbolicNameIndex(AbstractBundle bundleState)
+   {
+      String symbolicName = bundleState.getSymbolicName();
+      if (symbolicName == null)
+         return;
+
+      synchronized (symbolicNameIndex)
+      {
+         AbstractBundle[] bundles = symbolicNameIndex.get(symbolicName);
+         if (bundles == null)
+            return;
+
+         List<AbstractBundle> aux = new ArrayList<AbstractBundle>(Arrays.asList(bundles));
+         aux.remove(bundleState);
+         if (aux.isEmpty())
+            symbolicNameIndex.remove(symbolicName);
+         else
+            symbolicNameIndex.put(symbolicName, aux.toArray(new AbstractBundle[aux.size()]));
+      }
    }
 
    void uninstallBundle(AbstractBundle bundleState)
@@ -212,16 +375,10 @@ public class BundleManager
       if (location == null)
          throw new IllegalArgumentException("Null location");
 
-      AbstractBundle result = null;
-      for (AbstractBundle aux : getBundles())
-      {
-         String auxLocation = aux.getLocation();
-         if (location.equals(auxLocation))
-         {
-            result = aux;
-            break;
-         }
-      }
+      AbstractBundle result = locationIndex.get(location);
+      if (result != null && result.getState() == Bundle.UNINSTALLED)
+         result = null;
+
       return result;
    }
 
@@ -233,40 +390,53 @@ public class BundleManager
     *  
     * @param symbolicName The bundle symbolic name
     * @param versionRange The optional bundle version 
-    * @return The bundle or null if there is no bundle with that name and version
+    * @return The bundle with the highest matching version or null if there is no bundle with that name and version
     */
    public AbstractBundle getBundle(String symbolicName, String versionRange)
    {
-      AbstractBundle result = null;
-      for (AbstractBundle aux : getBundles())
-      {
-         if (aux.getSymbolicName().equals(symbolicName))
-         {
-            if (versionRange == null || XVersionRange.parse(versionRange).isInRange(aux.getVersion()))
-            {
-               result = aux;
-               break;
-            }
-         }
-      }
-      return result;
+      List<AbstractBundle> bundles = getBundles(symbolicName, versionRange);
+      return bundles.isEmpty() ? null : bundles.get(0);
    }
 
    /**
-    * Get the list of installed bundles.
+    * Get the installed bundles with the given symbolic name and version.
     * i.e. Bundles in state UNINSTALLED are not returned
+    *  
+    * @param symbolicName The bundle symbolic name
+    * @param versionRange The optional bundle version range 
+    * @return The matching bundles, highest version first
     */
-   public List<AbstractBundle> getBundles()
+   public List<AbstractBundle> getBundles(String symbolicName, String versionRange)
    {
-      List<AbstractBundle> result = new ArrayList<AbstractBundle>();
-      for (AbstractBundle aux : bundleMap.values())
+      if (symbolicName == null)
+         throw new IllegalArgumentException("Null symbolicName");
+
+      AbstractBundle[] bundles = symbolicNameIndex.get(symbolicName);
+      if (bundles == null)
+         return Collections.emptyList();
+
+      XVersionRange range = (versionRange != null ? XVersionRange.parse(versionRange) : null);
+      List<AbstractBundle> result = new ArrayList<AbstractBundle>(bundles.length);
+      for (AbstractBundle aux : bundles)
       {
-         if (aux.getState() != Bundle.UNINSTALLED)
+         if (aux.getState() == Bundle.UNINSTALLED)
+            continue;
+
+         if (range == null || range.isInRange(aux.getVersion()))
             result.add(aux);
       }
       return Collections.unmodifiableList(result);
    }
 
+   /**
+    * Get the list of installed bundles.
+    * i.e. Bundles in state UNINSTALLED are not returned
+    */
+   public List<AbstractBundle> getBundles()
+   {
+      return snapshot.getBundles(~Bundle.UNINSTALLED, stateGeneration.get());
+   }
+
    /**
     * Get the list of bundles that are in one of the given states.
     * If the states pattern is null, it returns all registered bundles.
@@ -275,13 +445,7 @@ public class BundleManager
     */
    public List<AbstractBundle> getBundles(Integer states)
    {
-      List<AbstractBundle> result = new ArrayList<AbstractBundle>();
-      for (AbstractBundle aux : bundleMap.values())
-      {
-         if (states == null || (aux.getState() & states.intValue()) != 0)
-            result.add(aux);
-      }
-      return Collections.unmodifiableList(result);
+      return snapshot.getBundles(states != null ? states.intValue() : ~0, stateGeneration.get());
    }
 
    /**
@@ -375,6 +539,161 @@ public class BundleManager
       return install(root, location, false);
    }
 
+   /**
+    * Install the bundles from the given locations in one batch.
+    * 
+    * The bundle contents are mounted and their metadata is created on the given executor.
+    * The bundles are then validated and registered in the order of the given locations,
+    * so that bundle ids are assigned deterministically. If a bundle cannot be installed,
+    * the bundles before it remain installed and the content of the bundles after it is released.
+    * 
+    * @param executor the executor that prepares the deployments, or null to prepare them in the calling thread
+    * @return the installed bundles in the order of the given locations
+    */
+   public List<AbstractBundle> installBundles(List<String> locations, ExecutorService executor) throws BundleException
+   {
+      if (locations == null)
+         throw new IllegalArgumentException("Null locations");
+
+      // Prepare every distinct location that is not installed yet
+      Map<String, AbstractBundle> installed = new HashMap<String, AbstractBundle>();
+      Map<String, Deployment> deployments = new LinkedHashMap<String, Deployment>();
+      for (String location : locations)
+      {
+         if (location == null)
+            throw new BundleException("Null location");
+
+         AbstractBundle bundleState = getBundleByLocation(location);
+         if (bundleState != null)
+            installed.put(location, bundleState);
+         else
+            deployments.put(location, null);
+      }
+      prepareDeployments(deployments, executor);
+
+      // Register the bundles in the order of the locations
+      List<Deployment> ordered = new ArrayList<Deployment>(deployments.values());
+      for (int i = 0; i < ordered.size(); i++)
+      {
+         Deployment dep = ordered.get(i);
+         boolean success = false;
+         try
+         {
+            installed.put(dep.getLocation(), installBundle(dep));
+            success = true;
+         }
+         finally
+         {
+            // Delete the prepared content of the bundles that are not installed
+            if (success == false)
+            {
+               for (int j = i + 1; j < ordered.size(); j++)
+                  deleteContentRoot(ordered.get(j).getRoot());
+            }
+         }
+      }
+
+      List<AbstractBundle> result = new ArrayList<AbstractBundle>(locations.size());
+      for (String location : locations)
+         result.add(installed.get(location));
+
+      return result;
+   }
+
+   private void prepareDeployments(Map<String, Deployment> deployments, ExecutorService executor) throws BundleException
+   {
+      Map<String, Future<Deployment>> futures = new LinkedHashMap<String, Future<Deployment>>();
+      for (final String location : deployments.keySet())
+      {
+         Callable<Deployment> task = new Callable<Deployment>()
+         {
+            @Override
+            public Deployment call() throws BundleException
+            {
+               return prepareDeployment(location);
+            }
+         };
+         if (executor != null)
+         {
+            futures.put(location, executor.submit(task));
+         }
+         else
+         {
+            FutureTask<Deployment> future = new FutureTask<Deployment>(task);
+            future.run();
+            futures.put(location, future);
+         }
+      }
+
+      // Collect all deployments, so that none is left mounted on failure
+      BundleException failure = null;
+      for (Entry<String, Future<Deployment>> entry : futures.entrySet())
+      {
+         try
+         {
+            deployments.put(entry.getKey(), entry.getValue().get());
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+            if (failure == null)
+               failure = new BundleException("Interrupted while installing: " + entry.getKey(), ex);
+         }
+         catch (ExecutionException ex)
+         {
+            Throwable cause = ex.getCause();
+            if (failure == null)
+               failure = (cause instanceof BundleException ? (BundleException)cause : new BundleException("Cannot install: " + entry.getKey(), cause));
+         }
+      }
+
+      if (failure != null)
+      {
+         for (Deployment dep : deployments.values())
+         {
+            if (dep != null)
+               deleteContentRoot(dep.getRoot());
+         }
+         throw failure;
+      }
+   }
+
+   /**
+    * Mount the bundle content and create its deployment with the attached metadata.
+    */
+   private Deployment prepareDeployment(String location) throws BundleException
+   {
+      URL locationURL = getLocationURL(location);
+      VirtualFile root;
+      try
+      {
+         root = AbstractVFS.getRoot(locationURL);
+      }
+      catch (IOException e)
+      {
+         throw new BundleException("Invalid bundle location=" + locationURL, e);
+      }
+
+      try
+      {
+         BundleDeploymentPlugin plugin = getPlugin(BundleDeploymentPlugin.class);
+         Deployment dep = plugin.createDeployment(root, location);
+         OSGiMetaData metadata = plugin.createOSGiMetaData(dep);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+         return dep;
+      }
+      catch (BundleException ex)
+      {
+         deleteContentRoot(root);
+         throw ex;
+      }
+      catch (RuntimeException ex)
+      {
+         deleteContentRoot(root);
+         throw ex;
+      }
+   }
+
    /**
     * Install a bundle from the given {@link VirtualFile}
     */
@@ -426,10 +745,14 @@ public class BundleManager
 
    private AbstractBundle createBundle(Deployment dep) throws BundleException
    {
-      BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
-      OSGiMetaData metadata = deploymentPlugin.createOSGiMetaData(dep);
-
-      dep.addAttachment(OSGiMetaData.class, metadata);
+      // The metadata may have been created while preparing a bulk install
+      OSGiMetaData metadata = dep.getAttachment(OSGiMetaData.class);
+      if (metadata == null)
+      {
+         BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
+         metadata = deploymentPlugin.createOSGiMetaData(dep);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+      }
 
       // Create the bundle state
       boolean isFragment = metadata.getFragmentHost() != null;
@@ -545,4 +868,61 @@ public class BundleManager
          file.delete();
       }
    }
+
+   /**
+    * An immutable snapshot of the registered bundles.
+    * 
+    * The bundles are filtered by their current state. A filtered list is computed once 
+    * per state generation and returned without copying.
+    */
+   static class BundleSnapshot
+   {
+      private final AbstractBundle[] bundles;
+      private final ConcurrentMap<Integer, FilteredBundles> filtered = new ConcurrentHashMap<Integer, FilteredBundles>();
+
+      BundleSnapshot(AbstractBundle[] bundles)
+      {
+         this.bundles = bundles;
+      }
+
+      int indexOf(AbstractBundle bundleState)
+      {
+         for (int i = 0; i < bundles.length; i++)
+         {
+            if (bundles[i] == bundleState)
+               return i;
+         }
+         return -1;
+      }
+
+      // The generation must be read before the states of the bundles
+      List<AbstractBundle> getBundles(int mask, long generation)
+      {
+         FilteredBundles result = filtered.get(mask);
+         if (result == null || result.generation != generation)
+         {
+            List<AbstractBundle> aux = new ArrayList<AbstractBundle>(bundles.length);
+            for (AbstractBundle bundleState : bundles)
+            {
+               if ((bundleState.getState() & mask) != 0)
+                  aux.add(bundleState);
+            }
+            result = new FilteredBundles(generation, Collections.unmodifiableList(aux));
+            filtered.put(mask, result);
+         }
+         return result.bundles;
+      }
+   }
+
+   static class FilteredBundles
+   {
+      private final long generation;
+      private final List<AbstractBundle> bundles;
+
+      FilteredBundles(long generation, List<AbstractBundle> bundles)
+      {
+         this.generation = generation;
+         this.bundles = bundles;
+      }
+   }
 }
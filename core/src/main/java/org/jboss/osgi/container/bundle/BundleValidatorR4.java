@@ -99,7 +99,7 @@ public class BundleValidatorR4 implements BundleValidator
       // [TODO] Export-Package with a mandatory attribute that is not defined.
       
       // Installing a bundle that has the same symbolic name and version as an already installed bundle.
-      for (AbstractBundle bundle : bundleManager.getBundles())
+      for (AbstractBundle bundle : bundleManager.getBundles(symbolicName, null))
       {
          OSGiMetaData other = bundle.getOSGiMetaData();
          if (symbolicName.equals(other.getBundleSymbolicName()))
@@ -160,6 +160,42 @@ public class FrameworkState
       return (String)value;
    }
 
+   /**
+    * Get a numeric property.
+    * @return The property value or the default when the property is not set or not a valid number
+    */
+   public long getLongProperty(String key, long defaultValue)
+   {
+      String value = getProperty(key);
+      if (value == null)
+         return defaultValue;
+
+      try
+      {
+         return Long.parseLong(value.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.error("Invalid " + key + " value: " + value);
+         return defaultValue;
+      }
+   }
+
+   /**
+    * Get a numeric property.
+    * @return The property value or the default when the property is not set or not a valid int
+    */
+   public int getIntProperty(String key, int defaultValue)
+   {
+      long value = getLongProperty(key, defaultValue);
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      {
+         log.error("Invalid " + key + " value: " + value);
+         return defaultValue;
+      }
+      return (int)value;
+   }
+
    public void setProperty(String key, String value)
    {
       SystemBundle sysBundle = getSystemBundle();
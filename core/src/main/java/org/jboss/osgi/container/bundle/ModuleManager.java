@@ -21,16 +21,19 @@
 */
 package org.jboss.osgi.container.bundle;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.AssertionSetting;
@@ -44,13 +47,20 @@ import org.jboss.modules.ModuleLoadException;
 import org.jboss.modules.ModuleLoader;
 import org.jboss.modules.ModuleLoaderSelector;
 import org.jboss.modules.ModuleSpec;
+import org.jboss.modules.PathFilter;
 import org.jboss.modules.PathFilters;
 import org.jboss.modules.ResourceLoader;
+import org.jboss.osgi.container.loading.ClassLoadingMetrics;
+import org.jboss.osgi.container.loading.EntryIndex;
 import org.jboss.osgi.container.loading.FragmentLocalLoader;
 import org.jboss.osgi.container.loading.FrameworkLocalLoader;
 import org.jboss.osgi.container.loading.JBossLoggingModuleLogger;
+import org.jboss.osgi.container.loading.JarFileResourceLoader;
 import org.jboss.osgi.container.loading.ModuleClassLoaderExt;
+import org.jboss.osgi.container.loading.PathSetFilter;
 import org.jboss.osgi.container.loading.VirtualFileResourceLoader;
+import org.jboss.osgi.container.plugin.ClassLoaderLeakDetectorPlugin;
+import org.jboss.osgi.container.util.WeakInterner;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XPackageRequirement;
@@ -70,6 +80,9 @@ import org.osgi.framework.Version;
  */
 public class ModuleManager extends ModuleLoader
 {
+   // Provide logging
+   private static final Logger log = Logger.getLogger(ModuleManager.class);
+
    // Multiple revisions of the same bundle can co-exist, when a bundle has been updated but not yet refreshed.
    // This marker is appended to the version to make each revision unique.
    private static final String REVISION_MARKER = "-rev";
@@ -79,7 +92,19 @@ public class ModuleManager extends ModuleLoader
    // The framework module identifier
    private ModuleIdentifier frameworkIdentifier;
    // The modules that are registered with this {@link ModuleLoader}
-   private Map<ModuleIdentifier, ModuleHolder> modules = Collections.synchronizedMap(new LinkedHashMap<ModuleIdentifier, ModuleHolder>());
+   private final Map<ModuleIdentifier, ModuleHolder> modules = new ConcurrentHashMap<ModuleIdentifier, ModuleHolder>();
+   // The registered identifiers in registration order
+   private final Set<ModuleIdentifier> moduleIdentifiers = new LinkedHashSet<ModuleIdentifier>();
+   // An immutable snapshot of the registered identifiers, built on demand after the registry changed
+   private volatile Set<ModuleIdentifier> identifierSnapshot = Collections.emptySet();
+   // Serializes access to the module registry
+   private final Object registryLock = new Object();
+   // The shared import paths, released when no module uses them any more
+   private final WeakInterner<String> importPaths = new WeakInterner<String>();
+   // The shared import filters by set of paths, released when no module uses them any more
+   private final WeakInterner<PathSetFilter> importFilters = new WeakInterner<PathSetFilter>();
+   // The revisions of the registered modules by group and artifact, highest revision first
+   private final Map<String, Map<String, ModuleHolder[]>> revisionIndex = new ConcurrentHashMap<String, Map<String, ModuleHolder[]>>();
 
    public ModuleManager(BundleManager bundleManager)
    {
@@ -187,10 +212,26 @@ public class ModuleManager extends ModuleLoader
 
    /**
     * Get the set of registered module idetifiers
+    * 
+    * The returned set is an immutable snapshot in registration order, 
+    * which can be iterated while modules are added or removed.
     */
    public Set<ModuleIdentifier> getModuleIdentifiers()
    {
-      return Collections.unmodifiableSet(modules.keySet());
+      Set<ModuleIdentifier> snapshot = identifierSnapshot;
+      if (snapshot == null)
+      {
+         synchronized (registryLock)
+         {
+            snapshot = identifierSnapshot;
+            if (snapshot == null)
+            {
+               snapshot = Collections.unmodifiableSet(new LinkedHashSet<ModuleIdentifier>(moduleIdentifiers));
+               identifierSnapshot = snapshot;
+            }
+         }
+      }
+      return snapshot;
    }
 
    /**
@@ -229,47 +270,120 @@ public class ModuleManager extends ModuleLoader
    }
 
    // In some cases a module is looked up without a revision being specified. An example being a module
-   // dependency declared in a modules.xml file. In that case we need to search for the module and return
-   // the one with the highest revision number.
+   // dependency declared in a modules.xml file. In that case we return the module with the highest revision 
+   // number that has the requested version. If no such module exists the version is ignored.
    private ModuleHolder getModuleFromUnrevisionedIdentifier(ModuleIdentifier identifier)
    {
-      if (identifier.getVersion() != null && identifier.getVersion().contains(REVISION_MARKER))
+      String version = identifier.getVersion();
+      if (version != null && version.contains(REVISION_MARKER))
          // There is a revision identifier, so don't search.
          return null;
 
-      Set<ModuleIdentifier> versions = new TreeSet<ModuleIdentifier>(new Comparator<ModuleIdentifier>()
+      Map<String, ModuleHolder[]> artifacts = revisionIndex.get(identifier.getGroup());
+      ModuleHolder[] revisions = (artifacts != null ? artifacts.get(identifier.getArtifact()) : null);
+      if (revisions == null)
+         return null;
+
+      if (version != null)
       {
-         @Override
-         public int compare(ModuleIdentifier o1, ModuleIdentifier o2)
+         for (ModuleHolder holder : revisions)
          {
-            // Both objects must have a version with a revision marker as
-            // this is the condition for being added to the versions set.
-            int idx1 = o1.getVersion().lastIndexOf(REVISION_MARKER);
-            int idx2 = o2.getVersion().lastIndexOf(REVISION_MARKER);
-            Integer i1 = Integer.parseInt(o1.getVersion().substring(idx1 + REVISION_MARKER.length()));
-            Integer i2 = Integer.parseInt(o2.getVersion().substring(idx2 + REVISION_MARKER.length()));
-
-            // return the highest number first
-            return -i1.compareTo(i2);
+            if (version.equals(holder.baseVersion))
+               return holder;
          }
-      });
+      }
+      return revisions[0];
+   }
+
+   // Add a module to the index of unrevisioned identifiers, called with the registry lock held
+   private void addToRevisionIndex(ModuleHolder holder)
+   {
+      if (holder.revision < 0)
+         return;
 
-      for (ModuleIdentifier id : modules.keySet())
+      ModuleIdentifier identifier = holder.getModuleSpec().getModuleIdentifier();
+      Map<String, ModuleHolder[]> artifacts = revisionIndex.get(identifier.getGroup());
+      if (artifacts == null)
       {
-         if (id.getGroup().equals(identifier.getGroup()) == false)
-            continue;
+         artifacts = new ConcurrentHashMap<String, ModuleHolder[]>();
+         revisionIndex.put(identifier.getGroup(), artifacts);
+      }
 
-         if (id.getArtifact().equals(identifier.getArtifact()) == false)
-            continue;
+      // Replace a holder with the same identifier and keep the array sorted by revision, highest first
+      List<ModuleHolder> revisions = new ArrayList<ModuleHolder>();
+      ModuleHolder[] current = artifacts.get(identifier.getArtifact());
+      if (current != null)
+      {
+         for (ModuleHolder aux : current)
+         {
+            if (aux.getModuleSpec().getModuleIdentifier().equals(identifier) == false)
+               revisions.add(aux);
+         }
+      }
+      int index = 0;
+      while (index < revisions.size() && revisions.get(index).revision >= holder.revision)
+         index++;
+      revisions.add(index, holder);
+      artifacts.put(identifier.getArtifact(), revisions.toArray(new ModuleHolder[revisions.size()]));
+   }
+
+   // Remove a module from the index of unrevisioned identifiers, called with the registry lock held
+   private void removeFromRevisionIndex(ModuleHolder holder)
+   {
+      if (holder.revision < 0)
+         return;
+
+      ModuleIdentifier identifier = holder.getModuleSpec().getModuleIdentifier();
+      Map<String, ModuleHolder[]> artifacts = revisionIndex.get(identifier.getGroup());
+      ModuleHolder[] current = (artifacts != null ? artifacts.get(identifier.getArtifact()) : null);
+      if (current == null)
+         return;
 
-         if (id.getVersion().contains(REVISION_MARKER))
-            versions.add(id);
+      List<ModuleHolder> revisions = new ArrayList<ModuleHolder>();
+      for (ModuleHolder aux : current)
+      {
+         if (aux != holder)
+            revisions.add(aux);
+      }
+      if (revisions.isEmpty())
+      {
+         artifacts.remove(identifier.getArtifact());
+         if (artifacts.isEmpty())
+            revisionIndex.remove(identifier.getGroup());
       }
+      else
+      {
+         artifacts.put(identifier.getArtifact(), revisions.toArray(new ModuleHolder[revisions.size()]));
+      }
+   }
 
-      if (versions.size() == 0)
-         return null;
+   /**
+    * Register a module with this {@link ModuleLoader}
+    */
+   protected void addModuleHolder(ModuleHolder holder)
+   {
+      if (holder == null)
+         throw new IllegalArgumentException("Null holder");
+
+      ModuleIdentifier identifier = holder.getModuleSpec().getModuleIdentifier();
+      ModuleHolder previous;
+      synchronized (registryLock)
+      {
+         previous = modules.put(identifier, holder);
+         if (previous != null)
+            removeFromRevisionIndex(previous);
+         addToRevisionIndex(holder);
+
+         if (previous == null)
+         {
+            moduleIdentifiers.add(identifier);
+            identifierSnapshot = null;
+         }
+      }
 
-      return modules.get(versions.iterator().next());
+      // The resources of a replaced spec that was never loaded are not used by any module
+      if (previous != null && previous != holder && previous.getModule() == null)
+         previous.closeResources();
    }
 
    @Override
@@ -308,7 +422,7 @@ public class ModuleManager extends ModuleLoader
       ModuleSpec frameworkSpec = builder.create();
 
       AbstractRevision bundleRev = resModule.getAttachment(AbstractRevision.class);
-      modules.put(frameworkIdentifier, new ModuleHolder(bundleRev, frameworkSpec));
+      addModuleHolder(new ModuleHolder(bundleRev, frameworkSpec));
       return frameworkSpec;
    }
 
@@ -317,6 +431,7 @@ public class ModuleManager extends ModuleLoader
     */
    public ModuleSpec createModuleSpec(final XModule resModule, List<VirtualFile> contentRoots)
    {
+      AbstractRevision bundleRev = resModule.getAttachment(AbstractRevision.class);
       ModuleSpec moduleSpec = resModule.getAttachment(ModuleSpec.class);
       if (moduleSpec == null)
       {
@@ -332,6 +447,9 @@ public class ModuleManager extends ModuleLoader
 
          // Map the dependency builder for (the likely) case that the same exporter is choosen for multiple wires
          Map<XModule, DependencyBuildlerHolder> depBuilderMap = new LinkedHashMap<XModule, DependencyBuildlerHolder>();
+         
+         // The resource loaders that are closed when the module is removed
+         List<ResourceLoader> resourceLoaders = new ArrayList<ResourceLoader>();
 
          // In case there are no wires, there may still be dependencies due to attached fragments
          HostBundle hostBundle = resModule.getAttachment(HostBundle.class);
@@ -345,13 +463,7 @@ public class ModuleManager extends ModuleLoader
                processModuleWires(fragWires, depBuilderMap);
                
                // Create a fragment {@link LocalLoader} and add a dependency on it
-               FragmentLocalLoader localLoader = new FragmentLocalLoader(fragRev);
-               LocalDependencySpec.Builder depBuilder = LocalDependencySpec.build(localLoader, localLoader.getPaths());
-               // [REVIEW] dependent filter settings
-               depBuilder.setImportFilter(PathFilters.acceptAll());
-               depBuilder.setExportFilter(PathFilters.acceptAll());
-               
-               depBuilderMap.put(fragRev.getResolverModule(), new DependencyBuildlerHolder(depBuilder));
+               addFragmentDependency(fragRev, depBuilderMap, resourceLoaders);
             }
          }
          
@@ -360,19 +472,36 @@ public class ModuleManager extends ModuleLoader
 
          // Add the dependencies
          for (DependencyBuildlerHolder aux : depBuilderMap.values())
-            aux.addDependency(specBuilder);
+         {
+            PathSetFilter importFilter = (aux.importPaths != null ? getImportFilter(aux.importPaths) : null);
+            aux.addDependency(specBuilder, importFilter);
+         }
 
          // Add a local dependency for the local bundle content
+         EntryIndex entryIndex = null;
+         VirtualFile bundleRoot = null;
+         if (bundleRev instanceof AbstractUserRevision)
+         {
+            entryIndex = ((AbstractUserRevision)bundleRev).getEntryIndex();
+            bundleRoot = ((AbstractUserRevision)bundleRev).getContentRoot();
+         }
          for (VirtualFile contentRoot : contentRoots)
-            specBuilder.addResourceRoot(new VirtualFileResourceLoader(contentRoot));
+         {
+            EntryIndex rootIndex = (contentRoot == bundleRoot ? entryIndex : null);
+            ResourceLoader resourceLoader = createResourceLoader(contentRoot, rootIndex, bundleRev.getClassLoadingMetrics());
+            specBuilder.addResourceRoot(resourceLoader);
+            resourceLoaders.add(resourceLoader);
+         }
          specBuilder.addLocalDependency();
 
          // Build the ModuleSpec
          moduleSpec = specBuilder.create();
+         addModuleHolder(new ModuleHolder(bundleRev, moduleSpec, resourceLoaders));
+      }
+      else
+      {
+         addModuleHolder(new ModuleHolder(bundleRev, moduleSpec));
       }
-
-      AbstractRevision bundleRev = resModule.getAttachment(AbstractRevision.class);
-      modules.put(moduleSpec.getModuleIdentifier(), new ModuleHolder(bundleRev, moduleSpec));
       return moduleSpec;
    }
 
@@ -390,7 +519,7 @@ public class ModuleManager extends ModuleLoader
          if (req instanceof XPackageRequirement)
          {
             DependencyBuildlerHolder holder = getDependencyHolder(depBuilderMap, exporter);
-            holder.addImportPath(getPathFromPackageName(req.getName()));
+            holder.addImportPath(getImportPath(req.getName()));
             continue;
          }
 
@@ -401,17 +530,36 @@ public class ModuleManager extends ModuleLoader
             XRequireBundleRequirement bndreq = (XRequireBundleRequirement)req;
             boolean reexport = Constants.VISIBILITY_REEXPORT.equals(bndreq.getVisibility());
             if (reexport == true)
-            {
-               ModuleDependencySpec.Builder depBuilder = holder.moduleDependencyBuilder;
-               // [REVIEW] dependent filter settings
-               depBuilder.setImportFilter(PathFilters.acceptAll());
-               depBuilder.setExportFilter(PathFilters.acceptAll());
-            }
+               holder.reexport = true;
             continue;
          }
       }
    }
 
+   private void addFragmentDependency(FragmentRevision fragRev, Map<XModule, DependencyBuildlerHolder> depBuilderMap, List<ResourceLoader> resourceLoaders)
+   {
+      FragmentLocalLoader localLoader = new FragmentLocalLoader(fragRev);
+      resourceLoaders.add(localLoader.getResourceLoader());
+      LocalDependencySpec.Builder depBuilder = LocalDependencySpec.build(localLoader, localLoader.getPaths());
+      // [REVIEW] dependent filter settings
+      depBuilder.setImportFilter(PathFilters.acceptAll());
+      depBuilder.setExportFilter(PathFilters.acceptAll());
+
+      depBuilderMap.put(fragRev.getResolverModule(), new DependencyBuildlerHolder(depBuilder));
+   }
+
+   // Get the shared path for an imported package
+   private String getImportPath(String packageName)
+   {
+      return importPaths.intern(getPathFromPackageName(packageName));
+   }
+
+   // Get the shared filter for a set of import paths
+   private PathSetFilter getImportFilter(Set<String> paths)
+   {
+      return importFilters.intern(new PathSetFilter(paths));
+   }
+
    // Get or create the dependency builder for the exporter
    private DependencyBuildlerHolder getDependencyHolder(Map<XModule, DependencyBuildlerHolder> depBuilderMap, XModule exporter)
    {
@@ -429,8 +577,60 @@ public class ModuleManager extends ModuleLoader
    {
       // The module should remove automatically from the ModuleLoader
       // through Garbage Collection as it uses weak references.
-      ModuleHolder moduleHolder = modules.remove(identifier);
-      return (moduleHolder != null ? moduleHolder.module : null);
+      ModuleHolder moduleHolder;
+      synchronized (registryLock)
+      {
+         moduleHolder = modules.remove(identifier);
+         if (moduleHolder != null)
+         {
+            removeFromRevisionIndex(moduleHolder);
+
+            moduleIdentifiers.remove(identifier);
+            identifierSnapshot = null;
+         }
+      }
+      if (moduleHolder == null)
+         return null;
+
+      // Release the bundle content that is held open by the resource loaders
+      moduleHolder.closeResources();
+
+      // Verify that the class loader of the module actually gets collected
+      Module module = moduleHolder.getModule();
+      ClassLoaderLeakDetectorPlugin leakDetector = bundleManager.getOptionalPlugin(ClassLoaderLeakDetectorPlugin.class);
+      if (leakDetector != null && module != null)
+         leakDetector.moduleRemoved(moduleHolder.getBundleRevision(), module);
+
+      return module;
+   }
+
+   /**
+    * Create the {@link ResourceLoader} for the given content root.
+    *
+    * Content that is backed by a physical JAR file is read directly from the archive.
+    * For everything else, i.e. exploded directories, nested archives or archives with
+    * unsupported features, the content is read through the {@link VirtualFile} API.
+    * The optional {@link EntryIndex} is used to avoid scanning the content.
+    * The optional {@link ClassLoadingMetrics} record the class definitions.
+    */
+   public static ResourceLoader createResourceLoader(VirtualFile contentRoot, EntryIndex entryIndex, ClassLoadingMetrics metrics)
+   {
+      if (contentRoot == null)
+         throw new IllegalArgumentException("Null contentRoot");
+
+      File archiveFile = new File(contentRoot.getPathName());
+      if (archiveFile.isFile())
+      {
+         try
+         {
+            return new JarFileResourceLoader(contentRoot, archiveFile, PathFilters.acceptAll(), metrics);
+         }
+         catch (IOException ex)
+         {
+            log.debug("Cannot read archive directly: " + archiveFile, ex);
+         }
+      }
+      return new VirtualFileResourceLoader(contentRoot, PathFilters.acceptAll(), entryIndex, metrics);
    }
 
    public static String getPathFromClassName(final String className)
@@ -449,6 +649,7 @@ public class ModuleManager extends ModuleLoader
       private LocalDependencySpec.Builder localDependencyBuilder;
       private ModuleDependencySpec.Builder moduleDependencyBuilder;
       private Set<String> importPaths;
+      private boolean reexport;
 
       DependencyBuildlerHolder(LocalDependencySpec.Builder builder)
       {
@@ -468,15 +669,21 @@ public class ModuleManager extends ModuleLoader
          importPaths.add(path);
       }
 
-      void addDependency(ModuleSpec.Builder specBuilder)
+      void addDependency(ModuleSpec.Builder specBuilder, PathFilter importFilter)
       {
          if (moduleDependencyBuilder != null)
          {
+            if (reexport == true)
+            {
+               // [REVIEW] dependent filter settings
+               moduleDependencyBuilder.setImportFilter(PathFilters.acceptAll());
+               moduleDependencyBuilder.setExportFilter(PathFilters.acceptAll());
+            }
             if (importPaths != null)
             {
                // [REVIEW] dependent filter settings
-               moduleDependencyBuilder.setImportFilter(PathFilters.in(importPaths));
-               moduleDependencyBuilder.setExportFilter(PathFilters.in(importPaths));
+               moduleDependencyBuilder.setImportFilter(importFilter);
+               moduleDependencyBuilder.setExportFilter(importFilter);
             }
             specBuilder.addModuleDependency(moduleDependencyBuilder.create());
          }
@@ -493,16 +700,45 @@ public class ModuleManager extends ModuleLoader
    {
       private final AbstractRevision bundleRev;
       private final ModuleSpec moduleSpec;
-      private Module module;
+      private final String baseVersion;
+      private final int revision;
+      private final List<ResourceLoader> resourceLoaders;
+      private volatile Module module;
 
       public ModuleHolder(AbstractRevision bundleRev, ModuleSpec moduleSpec)
+      {
+         this(bundleRev, moduleSpec, Collections.<ResourceLoader> emptyList());
+      }
+
+      public ModuleHolder(AbstractRevision bundleRev, ModuleSpec moduleSpec, List<ResourceLoader> resourceLoaders)
       {
          if (bundleRev == null)
             throw new IllegalArgumentException("Null bundleRev");
          if (moduleSpec == null)
             throw new IllegalArgumentException("Null moduleSpec");
+         if (resourceLoaders == null)
+            throw new IllegalArgumentException("Null resourceLoaders");
          this.bundleRev = bundleRev;
          this.moduleSpec = moduleSpec;
+         this.resourceLoaders = resourceLoaders;
+
+         // Split the version into the bundle version and the revision once
+         String version = moduleSpec.getModuleIdentifier().getVersion();
+         int index = (version != null ? version.lastIndexOf(REVISION_MARKER) : -1);
+         int auxrev = -1;
+         if (index >= 0)
+         {
+            try
+            {
+               auxrev = Integer.parseInt(version.substring(index + REVISION_MARKER.length()));
+            }
+            catch (NumberFormatException ex)
+            {
+               // not a revision marker
+            }
+         }
+         baseVersion = (auxrev >= 0 ? version.substring(0, index) : version);
+         revision = auxrev;
       }
 
       AbstractRevision getBundleRevision()
@@ -524,5 +760,23 @@ public class ModuleManager extends ModuleLoader
       {
          this.module = module;
       }
+
+      void closeResources()
+      {
+         for (ResourceLoader aux : resourceLoaders)
+         {
+            if (aux instanceof Closeable)
+            {
+               try
+               {
+                  ((Closeable)aux).close();
+               }
+               catch (IOException ex)
+               {
+                  log.debug("Cannot close resource loader: " + aux, ex);
+               }
+            }
+         }
+      }
    }
 }
@@ -0,0 +1,91 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time spent in the class definitions on the current thread.
+ * 
+ * Defining a class may define its super types first. The time of such a nested
+ * definition is not accounted to the outer one.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class ClassDefineTimer
+{
+   // The start time and the nested define time of the definitions in progress
+   private final ThreadLocal<List<long[]>> pendingDefines = new ThreadLocal<List<long[]>>()
+   {
+      @Override
+      protected List<long[]> initialValue()
+      {
+         return new ArrayList<long[]>();
+      }
+   };
+
+   /**
+    * Get the number of definitions in progress on the current thread
+    */
+   public int getDepth()
+   {
+      return pendingDefines.get().size();
+   }
+
+   /**
+    * Record the start of a definition
+    */
+   public void defineStarted()
+   {
+      pendingDefines.get().add(new long[] { System.nanoTime(), 0 });
+   }
+
+   /**
+    * Record the completion of the innermost definition
+    * @return The time spent in the definition without nested definitions, or -1 if none is in progress
+    */
+   public long defineCompleted()
+   {
+      List<long[]> pending = pendingDefines.get();
+      if (pending.isEmpty())
+         return -1;
+
+      long[] define = pending.remove(pending.size() - 1);
+      long elapsed = System.nanoTime() - define[0];
+      if (pending.isEmpty() == false)
+         pending.get(pending.size() - 1)[1] += elapsed;
+
+      return elapsed - define[1];
+   }
+
+   /**
+    * Drop the definitions above the given depth. A definition that fails is never completed.
+    */
+   public void reset(int depth)
+   {
+      List<long[]> pending = pendingDefines.get();
+      while (pending.size() > depth)
+         pending.remove(pending.size() - 1);
+   }
+}
@@ -0,0 +1,146 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import org.jboss.osgi.container.util.StripedCounter;
+
+/**
+ * The class loading metrics of a bundle revision.
+ * 
+ * The counters are updated by the resource loaders and the class loaders 
+ * that load on behalf of the revision.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class ClassLoadingMetrics
+{
+   private final StripedCounter classesDefined = new StripedCounter();
+   private final StripedCounter bytesDefined = new StripedCounter();
+   private final StripedCounter defineTime = new StripedCounter();
+   private final StripedCounter readTime = new StripedCounter();
+   private final StripedCounter loadTime = new StripedCounter();
+   private final StripedCounter localHits = new StripedCounter();
+   private final StripedCounter delegatedHits = new StripedCounter();
+   private final StripedCounter dynamicHits = new StripedCounter();
+   private final StripedCounter misses = new StripedCounter();
+
+   /**
+    * Record the time spent reading the class bytes from the revision content
+    */
+   public void classRead(long nanos)
+   {
+      readTime.add(nanos);
+   }
+
+   /**
+    * Record a class that was defined by the loader of this revision
+    */
+   public void classDefined(int bytes, long nanos)
+   {
+      classesDefined.increment();
+      bytesDefined.add(bytes);
+      defineTime.add(nanos);
+   }
+
+   /**
+    * Record a class that was found by the loader of this revision
+    */
+   public void classFound(boolean local, long nanos)
+   {
+      if (local)
+         localHits.increment();
+      else
+         delegatedHits.increment();
+      loadTime.add(nanos);
+   }
+
+   /**
+    * Record a class that was found through a dynamic import
+    */
+   public void dynamicClassFound(long nanos)
+   {
+      dynamicHits.increment();
+      loadTime.add(nanos);
+   }
+
+   /**
+    * Record a class that could not be found
+    */
+   public void classNotFound(long nanos)
+   {
+      misses.increment();
+      loadTime.add(nanos);
+   }
+
+   public long getClassesDefined()
+   {
+      return classesDefined.sum();
+   }
+
+   public long getBytesDefined()
+   {
+      return bytesDefined.sum();
+   }
+
+   public long getDefineTimeNanos()
+   {
+      return defineTime.sum();
+   }
+
+   public long getReadTimeNanos()
+   {
+      return readTime.sum();
+   }
+
+   public long getLoadTimeNanos()
+   {
+      return loadTime.sum();
+   }
+
+   public long getLocalHits()
+   {
+      return localHits.sum();
+   }
+
+   public long getDelegatedHits()
+   {
+      return delegatedHits.sum();
+   }
+
+   public long getDynamicHits()
+   {
+      return dynamicHits.sum();
+   }
+
+   public long getMisses()
+   {
+      return misses.sum();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ClassLoadingMetrics[defined=" + classesDefined + ",bytes=" + bytesDefined + ",local=" + localHits + ",delegated=" + delegatedHits
+            + ",dynamic=" + dynamicHits + ",misses=" + misses + "]";
+   }
+}
@@ -0,0 +1,372 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.osgi.vfs.VirtualFile;
+
+/**
+ * An immutable index of the entries in a bundle's content.
+ * 
+ * Entry names are kept in a sorted array, with directory names ending in '/'.
+ * All entries below a directory therefore form a contiguous range, which is
+ * located by binary search. The index can be stored to and loaded from a file,
+ * so that it does not need to be rebuilt for the same content.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class EntryIndex
+{
+   private static final int MAGIC = 0x4a42454e;
+   private static final int VERSION = 1;
+
+   // The sorted entry names
+   private final String[] names;
+   // The entry sizes, -1 for directories and unknown sizes
+   private final long[] sizes;
+   // The paths of the directories that contain files
+   private final Set<String> localPaths;
+
+   private EntryIndex(String[] names, long[] sizes)
+   {
+      this.names = names;
+      this.sizes = sizes;
+
+      Set<String> paths = new HashSet<String>();
+      for (String name : names)
+      {
+         if (name.endsWith("/"))
+            continue;
+
+         int inx = name.lastIndexOf("/");
+         paths.add(inx > 0 ? name.substring(0, inx) : "");
+      }
+      this.localPaths = Collections.unmodifiableSet(paths);
+   }
+
+   /**
+    * Create the index for the given content root.
+    */
+   public static EntryIndex create(VirtualFile contentRoot) throws IOException
+   {
+      if (contentRoot == null)
+         throw new IllegalArgumentException("Null contentRoot");
+
+      Map<String, Long> entries = new TreeMap<String, Long>();
+      File archiveFile = new File(contentRoot.getPathName());
+      if (archiveFile.isFile())
+      {
+         // Read the central directory of the archive
+         ZipFile zipFile = new ZipFile(archiveFile);
+         try
+         {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements())
+            {
+               ZipEntry zipEntry = zipEntries.nextElement();
+               addEntry(entries, zipEntry.getName(), zipEntry.isDirectory() ? -1 : zipEntry.getSize());
+            }
+         }
+         finally
+         {
+            zipFile.close();
+         }
+      }
+      else
+      {
+         Enumeration<String> entryPaths = contentRoot.getEntryPaths("/");
+         while (entryPaths != null && entryPaths.hasMoreElements())
+            addEntry(entries, entryPaths.nextElement(), -1);
+      }
+
+      String[] names = new String[entries.size()];
+      long[] sizes = new long[entries.size()];
+      int index = 0;
+      for (Map.Entry<String, Long> entry : entries.entrySet())
+      {
+         names[index] = entry.getKey();
+         sizes[index] = entry.getValue();
+         index++;
+      }
+      return new EntryIndex(names, sizes);
+   }
+
+   private static void addEntry(Map<String, Long> entries, String name, long size)
+   {
+      if (name.startsWith("/"))
+         name = name.substring(1);
+      if (name.length() == 0)
+         return;
+
+      entries.put(name, name.endsWith("/") ? -1 : size);
+
+      // Archives do not necessarily contain entries for the parent directories
+      int inx = name.lastIndexOf('/', name.length() - 2);
+      while (inx > 0)
+      {
+         String parent = name.substring(0, inx + 1);
+         if (entries.containsKey(parent))
+            break;
+
+         entries.put(parent, -1L);
+         inx = name.lastIndexOf('/', inx - 1);
+      }
+   }
+
+   /**
+    * Load an index that was previously stored.
+    * @return The index or null if the file does not contain a valid index
+    */
+   public static EntryIndex load(File indexFile) throws IOException
+   {
+      if (indexFile == null)
+         throw new IllegalArgumentException("Null indexFile");
+
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try
+      {
+         if (input.readInt() != MAGIC || input.readInt() != VERSION)
+            return null;
+
+         int count = input.readInt();
+         String[] names = new String[count];
+         long[] sizes = new long[count];
+         for (int i = 0; i < count; i++)
+         {
+            names[i] = input.readUTF();
+            sizes[i] = input.readLong();
+         }
+         return new EntryIndex(names, sizes);
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   /**
+    * Store this index to the given file.
+    */
+   public void store(File indexFile) throws IOException
+   {
+      if (indexFile == null)
+         throw new IllegalArgumentException("Null indexFile");
+
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+      try
+      {
+         output.writeInt(MAGIC);
+         output.writeInt(VERSION);
+         output.writeInt(names.length);
+         for (int i = 0; i < names.length; i++)
+         {
+            output.writeUTF(names[i]);
+            output.writeLong(sizes[i]);
+         }
+      }
+      finally
+      {
+         output.close();
+      }
+   }
+
+   /**
+    * Get the paths of the directories that contain files, the root being ""
+    */
+   public Set<String> getLocalPaths()
+   {
+      return localPaths;
+   }
+
+   /**
+    * True if a file or directory exists for the given path
+    */
+   public boolean hasEntry(String path)
+   {
+      path = normalize(path);
+      if (path.length() == 0)
+         return true;
+
+      if (Arrays.binarySearch(names, path) >= 0)
+         return true;
+
+      return path.endsWith("/") == false && Arrays.binarySearch(names, path + "/") >= 0;
+   }
+
+   /**
+    * Get the size of the file with the given path
+    * @return The size or -1 if it is unknown or the path is not a file
+    */
+   public long getSize(String path)
+   {
+      int index = Arrays.binarySearch(names, normalize(path));
+      return index >= 0 ? sizes[index] : -1;
+   }
+
+   /**
+    * Get the entries for the given path, recursively. 
+    * For a directory this includes the directory itself.
+    * @return The entry paths or null if there is no entry for the given path
+    */
+   public List<String> getEntryPaths(String path)
+   {
+      path = normalize(path);
+      if (path.length() == 0)
+         return Collections.unmodifiableList(Arrays.asList(names));
+
+      if (path.endsWith("/") == false)
+      {
+         if (Arrays.binarySearch(names, path) >= 0)
+            return Collections.singletonList(path);
+
+         path = path + "/";
+      }
+
+      int start = Arrays.binarySearch(names, path);
+      if (start < 0)
+         return null;
+
+      return Collections.unmodifiableList(Arrays.asList(names).subList(start, getRangeEnd(path, start)));
+   }
+
+   /**
+    * Find the files below the given directory path whose name matches the given pattern.
+    * The pattern may contain '*' wildcards. A null pattern matches all files.
+    */
+   public List<String> findEntries(String path, String pattern, boolean recurse)
+   {
+      if (path == null)
+         throw new IllegalArgumentException("Null path");
+
+      String prefix = normalize(path);
+      if (prefix.length() > 0 && prefix.endsWith("/") == false)
+         prefix = prefix + "/";
+
+      int start = 0;
+      int end = names.length;
+      if (prefix.length() > 0)
+      {
+         start = Arrays.binarySearch(names, prefix);
+         if (start < 0)
+            return Collections.emptyList();
+
+         end = getRangeEnd(prefix, start);
+      }
+
+      List<String> result = new ArrayList<String>();
+      for (int i = start; i < end; i++)
+      {
+         String name = names[i];
+         if (name.endsWith("/"))
+            continue;
+
+         int nameIndex = name.lastIndexOf('/') + 1;
+         if (recurse == false && nameIndex != prefix.length())
+            continue;
+
+         if (pattern == null || matches(pattern, name, nameIndex))
+            result.add(name);
+      }
+      return result;
+   }
+
+   private int getRangeEnd(String prefix, int start)
+   {
+      // Find the first name after start that does not have the given prefix
+      int low = start + 1;
+      int high = names.length;
+      while (low < high)
+      {
+         int mid = (low + high) >>> 1;
+         if (names[mid].startsWith(prefix))
+            low = mid + 1;
+         else
+            high = mid;
+      }
+      return low;
+   }
+
+   private static String normalize(String path)
+   {
+      if (path == null)
+         throw new IllegalArgumentException("Null path");
+
+      return path.startsWith("/") ? path.substring(1) : path;
+   }
+
+   /**
+    * Match the name that starts at the given offset against a pattern with '*' wildcards.
+    */
+   static boolean matches(String pattern, String name, int offset)
+   {
+      int p = 0;
+      int n = offset;
+      int starIndex = -1;
+      int starMatch = 0;
+      while (n < name.length())
+      {
+         if (p < pattern.length() && pattern.charAt(p) != '*' && pattern.charAt(p) == name.charAt(n))
+         {
+            p++;
+            n++;
+         }
+         else if (p < pattern.length() && pattern.charAt(p) == '*')
+         {
+            starIndex = p++;
+            starMatch = n;
+         }
+         else if (starIndex != -1)
+         {
+            p = starIndex + 1;
+            n = ++starMatch;
+         }
+         else
+         {
+            return false;
+         }
+      }
+      while (p < pattern.length() && pattern.charAt(p) == '*')
+         p++;
+
+      return p == pattern.length();
+   }
+}
@@ -32,6 +32,7 @@ import org.jboss.modules.ClassSpec;
 import org.jboss.modules.ConcurrentClassLoader;
 import org.jboss.modules.LocalLoader;
 import org.jboss.modules.Resource;
+import org.jboss.modules.ResourceLoader;
 import org.jboss.osgi.container.bundle.FragmentRevision;
 import org.jboss.osgi.container.bundle.HostRevision;
 import org.jboss.osgi.container.bundle.ModuleManager;
@@ -48,7 +49,7 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
    private static final Logger log = Logger.getLogger(FragmentLocalLoader.class);
 
    private final FragmentRevision fragRevision;
-   private final VirtualFileResourceLoader resourceLoader;
+   private final ResourceLoader resourceLoader;
    private final Set<String> paths;
 
    public FragmentLocalLoader(FragmentRevision fragRevision)
@@ -57,7 +58,7 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
          throw new IllegalArgumentException("Null fragmentRev");
 
       this.fragRevision = fragRevision;
-      this.resourceLoader = new VirtualFileResourceLoader(fragRevision.getContentRoot());
+      this.resourceLoader = ModuleManager.createResourceLoader(fragRevision.getContentRoot(), fragRevision.getEntryIndex(), fragRevision.getClassLoadingMetrics());
       this.paths = Collections.unmodifiableSet(new HashSet<String>(resourceLoader.getPaths()));
    }
 
@@ -71,15 +72,25 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
       return paths;
    }
 
+   public ResourceLoader getResourceLoader()
+   {
+      return resourceLoader;
+   }
+
    @Override
    public Class<?> loadClassLocal(String className, boolean exportOnly)
    {
+      ClassLoadingMetrics metrics = fragRevision.getClassLoadingMetrics();
+      long start = System.nanoTime();
       try
       {
-         return super.loadClass(className);
+         Class<?> result = super.loadClass(className);
+         metrics.classFound(result.getClassLoader() == this, System.nanoTime() - start);
+         return result;
       }
       catch (ClassNotFoundException ex)
       {
+         metrics.classNotFound(System.nanoTime() - start);
          return null;
       }
    }
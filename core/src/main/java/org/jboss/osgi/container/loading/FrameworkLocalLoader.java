@@ -22,22 +22,28 @@
 package org.jboss.osgi.container.loading;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.LocalLoader;
 import org.jboss.modules.Resource;
+import org.jboss.osgi.container.bundle.AbstractRevision;
 import org.jboss.osgi.container.bundle.BundleManager;
-import org.jboss.osgi.container.bundle.ModuleManager;
 import org.jboss.osgi.container.plugin.SystemPackagesPlugin;
+import org.jboss.osgi.container.util.PackageNameMatcher;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XPackageCapability;
-import org.jboss.osgi.spi.NotImplementedException;
 
 /**
  * A {@link LocalLoader} that only loads framework defined classes/resources.
@@ -50,13 +56,26 @@ public class FrameworkLocalLoader implements LocalLoader
    // Provide logging
    private static final Logger log = Logger.getLogger(FrameworkLocalLoader.class);
 
+   // The maximum number of class names held in the negative class cache
+   private static final int MAX_CLASS_MISSES = 1024;
+   // The maximum number of resource names held in the resource cache
+   private static final int MAX_CACHED_RESOURCES = 1024;
+
    private ClassLoader systemClassLoader;
    private Set<String> exportedPaths = new HashSet<String>();
+   private PackageNameMatcher exportedPackages;
    private SystemPackagesPlugin systemPackages;
+   private final ClassLoadingMetrics metrics;
+
+   // The resources by name, an empty list for a resource that does not exist
+   private final ConcurrentMap<String, List<Resource>> resourceCache = new ConcurrentHashMap<String, List<Resource>>();
+   // The names of exported classes that could not be found
+   private final ConcurrentMap<String, Boolean> classMisses = new ConcurrentHashMap<String, Boolean>();
 
    public FrameworkLocalLoader(BundleManager bundleManager, XModule resModule)
    {
       this.systemPackages = bundleManager.getPlugin(SystemPackagesPlugin.class);
+      this.metrics = resModule.getAttachment(AbstractRevision.class).getClassLoadingMetrics();
       
       this.systemClassLoader = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>()
       {
@@ -78,8 +97,13 @@ public class FrameworkLocalLoader implements LocalLoader
       }
 
       // Add package capabilities exported by the framework
+      List<String> packageNames = new ArrayList<String>();
       for (XPackageCapability cap : resModule.getPackageCapabilities())
+      {
          exportedPaths.add(cap.getName().replace('.', File.separatorChar));
+         packageNames.add(cap.getName());
+      }
+      exportedPackages = PackageNameMatcher.compile(packageNames);
    }
 
    public Set<String> getExportedPaths()
@@ -94,39 +118,55 @@ public class FrameworkLocalLoader implements LocalLoader
       if (traceEnabled)
          log.trace("Attempt to find framework class [" + className + "] ...");
 
+      long start = System.nanoTime();
+
       // Delegate to framework loader for boot delegation 
-      String packageName = className.substring(0, className.lastIndexOf('.'));
-      if (systemPackages.isBootDelegationPackage(packageName))
+      if (systemPackages.isBootDelegationClass(className))
       {
          if (traceEnabled)
             log.trace("Load class through boot delegation [" + className + "] ...");
 
          try
          {
-            return systemClassLoader.loadClass(className);
+            Class<?> result = systemClassLoader.loadClass(className);
+            metrics.classFound(false, System.nanoTime() - start);
+            return result;
          }
          catch (ClassNotFoundException ex)
          {
             log.error("Cannot load class through boot delegation: " + className);
+            metrics.classNotFound(System.nanoTime() - start);
             return null;
          }
       }
 
-      String path = ModuleManager.getPathFromClassName(className);
-      if (exportedPaths.contains(path))
+      if (exportedPackages.matchesClass(className))
       {
+         if (classMisses.containsKey(className))
+         {
+            if (traceEnabled)
+               log.trace("Cannot find cached framework class miss [" + className + "]");
+            metrics.classNotFound(System.nanoTime() - start);
+            return null;
+         }
+         
          Class<?> result = null;
          try
          {
             result = systemClassLoader.loadClass(className);
             if (traceEnabled)
                log.trace("Found framework class [" + className + "]");
+            metrics.classFound(false, System.nanoTime() - start);
             return result;
          }
          catch (ClassNotFoundException ex)
          {
             if (traceEnabled)
                log.trace("Cannot find framework class [" + className + "]");
+            
+            // The framework class path does not change, so a miss stays a miss
+            if (classMisses.size() < MAX_CLASS_MISSES)
+               classMisses.put(className, Boolean.TRUE);
          }
       }
       else
@@ -135,18 +175,72 @@ public class FrameworkLocalLoader implements LocalLoader
             log.trace("Cannot find filtered class [" + className + "]");
       }
 
+      metrics.classNotFound(System.nanoTime() - start);
       return null;
    }
 
    @Override
    public List<Resource> loadResourceLocal(String name)
    {
-      throw new NotImplementedException();
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+
+      if (name.startsWith("/"))
+         name = name.substring(1);
+
+      // Only resources in exported or boot delegation paths are visible
+      int idx = name.lastIndexOf('/');
+      String path = idx > 0 ? name.substring(0, idx) : "";
+      if (exportedPaths.contains(path.replace('/', File.separatorChar)) == false && systemPackages.isBootDelegationPackage(path.replace('/', '.')) == false)
+      {
+         if (log.isTraceEnabled())
+            log.trace("Cannot find filtered resource [" + name + "]");
+         return Collections.emptyList();
+      }
+
+      List<Resource> result = resourceCache.get(name);
+      if (result == null)
+      {
+         // A concurrent search for the same name finds the same resources
+         result = findResources(name);
+         if (resourceCache.size() < MAX_CACHED_RESOURCES)
+            resourceCache.put(name, result);
+      }
+      else if (log.isTraceEnabled())
+      {
+         log.trace("Found cached framework resources [" + name + "]: " + result);
+      }
+      return result;
    }
 
    @Override
    public Resource loadResourceLocal(String root, String name)
    {
-      throw new NotImplementedException();
+      // The framework does not have named resource roots
+      return null;
+   }
+
+   private List<Resource> findResources(String name)
+   {
+      boolean traceEnabled = log.isTraceEnabled();
+      if (traceEnabled)
+         log.trace("Attempt to find framework resource [" + name + "] ...");
+
+      List<Resource> result = new ArrayList<Resource>();
+      try
+      {
+         Enumeration<URL> urls = systemClassLoader.getResources(name);
+         while (urls.hasMoreElements())
+            result.add(new URLResource(name, urls.nextElement()));
+      }
+      catch (IOException ex)
+      {
+         log.debug("Cannot obtain framework resources: " + name, ex);
+      }
+
+      if (traceEnabled)
+         log.trace("Found framework resources [" + name + "]: " + result);
+
+      return result.isEmpty() ? Collections.<Resource>emptyList() : Collections.unmodifiableList(result);
    }
 }
@@ -0,0 +1,458 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jboss.modules.ClassSpec;
+import org.jboss.modules.PackageSpec;
+import org.jboss.modules.PathFilter;
+import org.jboss.modules.PathFilters;
+import org.jboss.modules.Resource;
+import org.jboss.modules.ResourceLoader;
+import org.jboss.osgi.container.loading.VirtualFileResourceLoader.VirtualResource;
+import org.jboss.osgi.vfs.VirtualFile;
+
+/**
+ * A {@link ResourceLoader} for bundle content that is backed by a JAR file.
+ *
+ * The central directory of the archive is read once. Class definitions are read
+ * with positional reads from the archive into a byte array of the exact entry size.
+ * The archive stays open until the loader is closed, which happens when its module
+ * is removed. A truncated or rewritten archive results in an IOException.
+ * Resource URLs are still obtained from the {@link VirtualFile}, so that they do not
+ * differ from the ones returned by the {@link VirtualFileResourceLoader}.
+ *
+ * ZIP64 and encrypted archives are not supported.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class JarFileResourceLoader implements ResourceLoader, Closeable
+{
+   private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+   private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+   private static final int END_HEADER_SIGNATURE = 0x06054b50;
+   private static final int END_HEADER_SIZE = 22;
+   private static final int LOCAL_HEADER_SIZE = 30;
+   private static final int CENTRAL_HEADER_SIZE = 46;
+   private static final int METHOD_STORED = 0;
+   private static final int METHOD_DEFLATED = 8;
+
+   private final VirtualFile virtualFile;
+   private final File archiveFile;
+   private final PathFilter exportFilter;
+   private final ClassLoadingMetrics metrics;
+   private final Map<String, ArchiveEntry> entries;
+   private final Set<String> localPaths;
+   private final ConcurrentMap<String, PackageSpec> packageSpecs = new ConcurrentHashMap<String, PackageSpec>();
+   private volatile Manifest manifest;
+   private volatile boolean manifestRead;
+   // The channel that is shared by all readers, guarded by this for reopen and close
+   private volatile FileChannel channel;
+   private boolean closed;
+
+   public JarFileResourceLoader(VirtualFile virtualFile, File archiveFile) throws IOException
+   {
+      this(virtualFile, archiveFile, PathFilters.acceptAll());
+   }
+
+   public JarFileResourceLoader(VirtualFile virtualFile, File archiveFile, PathFilter exportFilter) throws IOException
+   {
+      this(virtualFile, archiveFile, exportFilter, null);
+   }
+
+   public JarFileResourceLoader(VirtualFile virtualFile, File archiveFile, PathFilter exportFilter, ClassLoadingMetrics metrics) throws IOException
+   {
+      if (virtualFile == null)
+         throw new IllegalArgumentException("Null virtualFile");
+      if (archiveFile == null)
+         throw new IllegalArgumentException("Null archiveFile");
+      if (exportFilter == null)
+         throw new IllegalArgumentException("Null exportFilter");
+
+      this.virtualFile = virtualFile;
+      this.archiveFile = archiveFile;
+      this.exportFilter = exportFilter;
+      this.metrics = metrics;
+
+      channel = new RandomAccessFile(archiveFile, "r").getChannel();
+      try
+      {
+         entries = readCentralDirectory(channel);
+      }
+      catch (IndexOutOfBoundsException ex)
+      {
+         channel.close();
+         IOException ioex = new IOException("Invalid archive: " + archiveFile);
+         ioex.initCause(ex);
+         throw ioex;
+      }
+      catch (IOException ex)
+      {
+         channel.close();
+         throw ex;
+      }
+      localPaths = getLocalPaths(entries.keySet());
+   }
+
+   /**
+    * Close the archive. Class definitions can no longer be read from a closed loader.
+    */
+   @Override
+   public synchronized void close() throws IOException
+   {
+      closed = true;
+      channel.close();
+   }
+
+   @Override
+   public String getRootName()
+   {
+      return virtualFile.getPathName();
+   }
+
+   @Override
+   public PathFilter getExportFilter()
+   {
+      return exportFilter;
+   }
+
+   @Override
+   public ClassSpec getClassSpec(String name) throws IOException
+   {
+      String fileName = name.replace('.', '/') + ".class";
+      ArchiveEntry entry = entries.get(fileName);
+      if (entry == null)
+         return null;
+
+      long start = System.nanoTime();
+      ClassSpec spec = new ClassSpec();
+      spec.setBytes(readEntry(entry));
+      if (metrics != null)
+         metrics.classRead(System.nanoTime() - start);
+      return spec;
+   }
+
+   @Override
+   public PackageSpec getPackageSpec(String name) throws IOException
+   {
+      PackageSpec spec = packageSpecs.get(name);
+      if (spec == null)
+      {
+         spec = new PackageSpec();
+         Manifest manifest = getManifest();
+         if (manifest != null)
+         {
+            Attributes mainAttributes = manifest.getMainAttributes();
+            Attributes entryAttributes = manifest.getAttributes(name);
+            spec.setSpecTitle(getDefinedAttribute(Attributes.Name.SPECIFICATION_TITLE, entryAttributes, mainAttributes));
+            spec.setSpecVersion(getDefinedAttribute(Attributes.Name.SPECIFICATION_VERSION, entryAttributes, mainAttributes));
+            spec.setSpecVendor(getDefinedAttribute(Attributes.Name.SPECIFICATION_VENDOR, entryAttributes, mainAttributes));
+            spec.setImplTitle(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_TITLE, entryAttributes, mainAttributes));
+            spec.setImplVersion(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VERSION, entryAttributes, mainAttributes));
+            spec.setImplVendor(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, entryAttributes, mainAttributes));
+            if (Boolean.parseBoolean(getDefinedAttribute(Attributes.Name.SEALED, entryAttributes, mainAttributes)))
+               spec.setSealBase(virtualFile.toURL());
+         }
+         PackageSpec existing = packageSpecs.putIfAbsent(name, spec);
+         spec = (existing != null ? existing : spec);
+      }
+      return spec;
+   }
+
+   private static String getDefinedAttribute(Attributes.Name name, Attributes entryAttribute, Attributes mainAttribute)
+   {
+      final String value = entryAttribute == null ? null : entryAttribute.getValue(name);
+      return value == null ? mainAttribute == null ? null : mainAttribute.getValue(name) : value;
+   }
+
+   private Manifest getManifest() throws IOException
+   {
+      if (manifestRead == false)
+      {
+         ArchiveEntry entry = entries.get(JarFile.MANIFEST_NAME);
+         if (entry != null)
+            manifest = new Manifest(new ByteArrayInputStream(readEntry(entry)));
+         manifestRead = true;
+      }
+      return manifest;
+   }
+
+   @Override
+   public Resource getResource(String name)
+   {
+      try
+      {
+         VirtualFile child = virtualFile.getChild(name);
+         if (child == null)
+            return null;
+
+         String entryName = name.startsWith("/") ? name.substring(1) : name;
+         ArchiveEntry entry = entries.get(entryName);
+         return new VirtualResource(child, entry != null ? entry.size : 0);
+      }
+      catch (IOException ex)
+      {
+         return null;
+      }
+   }
+
+   @Override
+   public String getLibrary(String name)
+   {
+      return null;
+   }
+
+   @Override
+   public Collection<String> getPaths()
+   {
+      return localPaths;
+   }
+
+   private byte[] readEntry(ArchiveEntry entry) throws IOException
+   {
+      try
+      {
+         return readEntry(getChannel(), entry);
+      }
+      catch (ClosedByInterruptException ex)
+      {
+         throw ex;
+      }
+      catch (AsynchronousCloseException ex)
+      {
+         // Another reader was interrupted, which closes the channel
+         return readEntry(getChannel(), entry);
+      }
+   }
+
+   // Get the open channel. A reader that is interrupted closes the channel for all readers.
+   private FileChannel getChannel() throws IOException
+   {
+      FileChannel result = channel;
+      if (result.isOpen())
+         return result;
+
+      synchronized (this)
+      {
+         if (closed == true)
+            throw new IOException("Loader closed: " + archiveFile);
+         if (channel.isOpen() == false)
+            channel = new RandomAccessFile(archiveFile, "r").getChannel();
+         return channel;
+      }
+   }
+
+   private byte[] readEntry(FileChannel channel, ArchiveEntry entry) throws IOException
+   {
+      byte[] bytes = new byte[entry.size];
+
+      // The local header may contain a different extra field than the central header
+      ByteBuffer header = readBuffer(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+      if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+         throw new IOException("Invalid local header for: " + entry.name);
+
+      int nameLength = header.getShort(26) & 0xffff;
+      int extraLength = header.getShort(28) & 0xffff;
+      long dataOffset = (long)entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+      if (entry.method == METHOD_STORED)
+      {
+         readFully(channel, dataOffset, ByteBuffer.wrap(bytes));
+         return bytes;
+      }
+
+      // The inflater requires an extra dummy byte when the zlib header is omitted
+      byte[] input = new byte[entry.compressedSize + 1];
+      readFully(channel, dataOffset, ByteBuffer.wrap(input, 0, entry.compressedSize));
+
+      // Inflate straight into the exactly sized array
+      Inflater inflater = new Inflater(true);
+      try
+      {
+         inflater.setInput(input);
+         int count = 0;
+         while (count < bytes.length)
+         {
+            int read = inflater.inflate(bytes, count, bytes.length - count);
+            if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+               break;
+            count += read;
+         }
+         if (count != bytes.length)
+            throw new IOException("Unexpected entry size for: " + entry.name);
+      }
+      catch (DataFormatException ex)
+      {
+         IOException ioex = new IOException("Cannot inflate: " + entry.name);
+         ioex.initCause(ex);
+         throw ioex;
+      }
+      finally
+      {
+         inflater.end();
+      }
+      return bytes;
+   }
+
+   private Map<String, ArchiveEntry> readCentralDirectory(FileChannel channel) throws IOException
+   {
+      // The end header is followed by an optional comment of up to 64k
+      long length = channel.size();
+      int tailLength = (int)Math.min(length, END_HEADER_SIZE + 0xffff);
+      ByteBuffer tail = readBuffer(channel, length - tailLength, tailLength);
+      int endOffset = findEndHeader(tail);
+
+      int entryCount = tail.getShort(endOffset + 10) & 0xffff;
+      long directorySize = tail.getInt(endOffset + 12) & 0xffffffffL;
+      long directoryOffset = tail.getInt(endOffset + 16) & 0xffffffffL;
+      if (entryCount == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL)
+         throw new IOException("ZIP64 archives not supported: " + archiveFile);
+      if (directoryOffset + directorySize > length)
+         throw new IOException("Invalid central directory: " + archiveFile);
+
+      ByteBuffer directory = readBuffer(channel, directoryOffset, (int)directorySize);
+      Map<String, ArchiveEntry> result = new HashMap<String, ArchiveEntry>(entryCount * 2);
+      int offset = 0;
+      for (int i = 0; i < entryCount; i++)
+      {
+         if (directory.getInt(offset) != CENTRAL_HEADER_SIGNATURE)
+            throw new IOException("Invalid central directory: " + archiveFile);
+
+         int flags = directory.getShort(offset + 8) & 0xffff;
+         int method = directory.getShort(offset + 10) & 0xffff;
+         long compressedSize = directory.getInt(offset + 20) & 0xffffffffL;
+         long size = directory.getInt(offset + 24) & 0xffffffffL;
+         int nameLength = directory.getShort(offset + 28) & 0xffff;
+         int extraLength = directory.getShort(offset + 30) & 0xffff;
+         int commentLength = directory.getShort(offset + 32) & 0xffff;
+         long localHeaderOffset = directory.getInt(offset + 42) & 0xffffffffL;
+
+         byte[] nameBytes = new byte[nameLength];
+         ByteBuffer view = directory.duplicate();
+         view.position(offset + CENTRAL_HEADER_SIZE);
+         view.get(nameBytes);
+         String name = new String(nameBytes, "UTF-8");
+
+         if ((flags & 0x01) != 0)
+            throw new IOException("Encrypted entries not supported: " + name);
+         if (method != METHOD_STORED && method != METHOD_DEFLATED)
+            throw new IOException("Unsupported compression method " + method + " for: " + name);
+         if (size >= Integer.MAX_VALUE || compressedSize >= Integer.MAX_VALUE || localHeaderOffset >= Integer.MAX_VALUE)
+            throw new IOException("ZIP64 entries not supported: " + name);
+
+         result.put(name, new ArchiveEntry(name, method, (int)compressedSize, (int)size, (int)localHeaderOffset));
+         offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+      return result;
+   }
+
+   private int findEndHeader(ByteBuffer tail) throws IOException
+   {
+      for (int offset = tail.capacity() - END_HEADER_SIZE; offset >= 0; offset--)
+      {
+         if (tail.getInt(offset) == END_HEADER_SIGNATURE)
+            return offset;
+      }
+      throw new IOException("Cannot find central directory: " + archiveFile);
+   }
+
+   private ByteBuffer readBuffer(FileChannel channel, long position, int length) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, position, buffer);
+      buffer.flip();
+      return buffer;
+   }
+
+   private void readFully(FileChannel channel, long position, ByteBuffer target) throws IOException
+   {
+      while (target.hasRemaining())
+      {
+         int read = channel.read(target, position);
+         if (read < 0)
+            throw new IOException("Truncated archive: " + archiveFile);
+         position += read;
+      }
+   }
+
+   private static Set<String> getLocalPaths(Set<String> entryNames)
+   {
+      Set<String> result = new HashSet<String>();
+      for (String entryName : entryNames)
+      {
+         if (entryName.endsWith("/"))
+            continue;
+
+         int inx = entryName.lastIndexOf("/");
+         result.add(inx > 0 ? entryName.substring(0, inx) : "");
+      }
+      return Collections.unmodifiableSet(result);
+   }
+
+   @Override
+   public String toString()
+   {
+      return getClass().getSimpleName() + "[" + archiveFile + "]";
+   }
+
+   static class ArchiveEntry
+   {
+      final String name;
+      final int method;
+      final int compressedSize;
+      final int size;
+      final int localHeaderOffset;
+
+      ArchiveEntry(String name, int method, int compressedSize, int size, int localHeaderOffset)
+      {
+         this.name = name;
+         this.method = method;
+         this.compressedSize = compressedSize;
+         this.size = size;
+         this.localHeaderOffset = localHeaderOffset;
+      }
+   }
+}
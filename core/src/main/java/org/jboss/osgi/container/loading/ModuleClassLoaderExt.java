@@ -23,15 +23,19 @@ package org.jboss.osgi.container.loading;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.AssertionSetting;
+import org.jboss.modules.ClassSpec;
 import org.jboss.modules.Module;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleIdentifier;
@@ -40,7 +44,9 @@ import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.AbstractRevision;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.ModuleManager;
+import org.jboss.osgi.container.plugin.ClassLoadingProfilePlugin;
 import org.jboss.osgi.container.plugin.ModuleManagerPlugin;
+import org.jboss.osgi.container.util.PackageNameMatcher;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XPackageRequirement;
 import org.osgi.framework.Bundle;
@@ -56,14 +62,37 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
    // Provide logging
    private static final Logger log = Logger.getLogger(ModuleClassLoaderExt.class);
 
+   // The maximum number of class names held in the dynamic load miss cache
+   private static final int MAX_DYNAMIC_MISSES = 512;
+
    private static ThreadLocal<Map<String, AtomicInteger>> dynamicLoadAttempts;
+   
+   // The class definitions in progress on the current thread
+   private static final ClassDefineTimer defineTimer = new ClassDefineTimer();
+   
    private final ModuleManager moduleManager;
    private final BundleManager bundleManager;
    private final AbstractRevision bundleRev;
+   private final PackageNameMatcher dynamicImports;
+   private final ClassLoadingProfilePlugin profilePlugin;
+   private final ClassLoadingMetrics metrics;
    
    // List of native library providers 
    private volatile List<NativeLibraryProvider> nativeLibraries;
    
+   // The class names that could not be loaded dynamically, valid for the recorded bundle generation
+   private final Map<String, Boolean> dynamicMisses = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Entry<String, Boolean> eldest)
+      {
+         return size() > MAX_DYNAMIC_MISSES;
+      }
+   };
+   private long dynamicMissesGeneration;
+   
    public ModuleClassLoaderExt(Module module, AssertionSetting setting, Collection<ResourceLoader> resourceLoaders)
    {
       super(module, setting, resourceLoaders);
@@ -71,6 +100,9 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
       bundleManager = moduleManager.getBundleManager();
       
       bundleRev = moduleManager.getBundleRevision(module.getIdentifier());
+      dynamicImports = getDynamicImportMatcher(bundleRev);
+      profilePlugin = bundleManager.getOptionalPlugin(ClassLoadingProfilePlugin.class);
+      metrics = (bundleRev != null ? bundleRev.getClassLoadingMetrics() : null);
    }
 
    public AbstractBundle getBundleState()
@@ -122,31 +154,103 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
       return libfile.getAbsolutePath();
    }
 
+   @Override
+   protected void preDefine(ClassSpec classSpec, String className)
+   {
+      if (metrics != null)
+         defineTimer.defineStarted();
+   }
+
+   @Override
+   protected void postDefine(ClassSpec classSpec, Class<?> definedClass)
+   {
+      if (metrics == null)
+         return;
+      
+      long nanos = defineTimer.defineCompleted();
+      if (nanos >= 0)
+         metrics.classDefined(classSpec.getBytes().length, nanos);
+   }
+
    @Override
    protected Class<?> findClass(String className, boolean exportsOnly, boolean resolve) throws ClassNotFoundException
    {
+      if (metrics == null)
+         return findClassInternal(className, exportsOnly, resolve);
+      
+      // postDefine is not called when the definition fails
+      int depth = defineTimer.getDepth();
+      try
+      {
+         return findClassInternal(className, exportsOnly, resolve);
+      }
+      finally
+      {
+         defineTimer.reset(depth);
+      }
+   }
+
+   private Class<?> findClassInternal(String className, boolean exportsOnly, boolean resolve) throws ClassNotFoundException
+   {
+      long start = System.nanoTime();
       Class<?> result = null;
       try
       {
          result = super.findClass(className, exportsOnly, resolve);
          if (result != null)
+         {
+            boolean local = (result.getClassLoader() == this);
+            if (metrics != null)
+               metrics.classFound(local, System.nanoTime() - start);
+            
+            // Record the classes that are defined by this loader
+            if (profilePlugin != null && bundleRev != null && local && profilePlugin.isRecording())
+               profilePlugin.classDefined(bundleRev, className);
+            
             return result;
+         }
       }
       catch (ClassNotFoundException ex)
       {
          // ignore
       }
       
+      // Check whether the class is already known to be missing
+      if (isDynamicMiss(className))
+         throw classNotFound(className, start);
+      
       // Try to load the class dynamically
-      String matchingPattern = findMatchingDynamicImportPattern(className);
-      if (matchingPattern != null)
+      if (matchesDynamicImportPattern(className))
       {
-         result = loadClassDynamically(className);
+         try
+         {
+            result = loadClassDynamically(className);
+         }
+         catch (ClassNotFoundException ex)
+         {
+            // ignore
+         }
          if (result != null)
+         {
+            if (metrics != null)
+               metrics.dynamicClassFound(System.nanoTime() - start);
             return result;
+         }
+      }
+      else
+      {
+         addDynamicMiss(className);
       }
       
-      throw new ClassNotFoundException(className + " from [" + getModule() + "]");
+      throw classNotFound(className, start);
+   }
+
+   private ClassNotFoundException classNotFound(String className, long start)
+   {
+      if (metrics != null)
+         metrics.classNotFound(System.nanoTime() - start);
+      
+      return new ClassNotFoundException(className + " from [" + getModule() + "]");
    }
 
    private Class<?> loadClassDynamically(String className) throws ClassNotFoundException
@@ -180,6 +284,9 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
             result = findInUnresolvedModules(className);
             if (result != null)
                return result;
+            
+            // Only a complete search qualifies as a miss
+            addDynamicMiss(className);
          }
       }
       finally
@@ -199,40 +306,42 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
       throw new ClassNotFoundException(className);
    }
 
-   private String findMatchingDynamicImportPattern(String className)
+   private boolean isDynamicMiss(String className)
    {
-      XModule resModule = bundleRev.getResolverModule();
-      List<XPackageRequirement> dynamicRequirements = resModule.getDynamicPackageRequirements();
-      if (dynamicRequirements.isEmpty())
-         return null;
-      
-      String foundMatch = null;
-      
-      for (XPackageRequirement dynreq : dynamicRequirements)
+      long generation = bundleManager.getBundleGeneration();
+      synchronized (dynamicMisses)
       {
-         String pattern = dynreq.getName();
-         if (pattern.equals("*"))
+         if (dynamicMissesGeneration != generation)
          {
-            foundMatch = pattern;
-            break;
+            dynamicMisses.clear();
+            dynamicMissesGeneration = generation;
+            return false;
          }
+         return dynamicMisses.get(className) != null;
+      }
+   }
 
-         if (pattern.endsWith(".*"))
-            pattern = pattern.substring(0, pattern.length() - 2);
-
-         pattern = pattern.replace('.', File.separatorChar);
-         String path = ModuleManager.getPathFromClassName(className);
-         if (path.startsWith(pattern))
-         {
-            foundMatch = pattern;
-            break;
-         }
+   private void addDynamicMiss(String className)
+   {
+      long generation = bundleManager.getBundleGeneration();
+      synchronized (dynamicMisses)
+      {
+         // Do not record a miss against a newer generation than the one the search ran in
+         if (dynamicMissesGeneration == generation)
+            dynamicMisses.put(className, Boolean.TRUE);
       }
+   }
 
+   private boolean matchesDynamicImportPattern(String className)
+   {
+      if (dynamicImports.isEmpty())
+         return false;
+      
+      boolean foundMatch = dynamicImports.matchesClass(className);
       if (log.isTraceEnabled())
       {
-         if (foundMatch != null)
-            log.trace("Found match for class [" + className + "] with Dynamic-ImportPackage pattern: " + foundMatch);
+         if (foundMatch == true)
+            log.trace("Found match for class [" + className + "] with Dynamic-ImportPackage patterns");
          else
             log.trace("Class [" + className + "] does not match Dynamic-ImportPackage patterns");
       }
@@ -240,6 +349,18 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
       return foundMatch;
    }
 
+   private static PackageNameMatcher getDynamicImportMatcher(AbstractRevision bundleRev)
+   {
+      List<String> patterns = new ArrayList<String>();
+      if (bundleRev != null)
+      {
+         XModule resModule = bundleRev.getResolverModule();
+         for (XPackageRequirement dynreq : resModule.getDynamicPackageRequirements())
+            patterns.add(dynreq.getName());
+      }
+      return PackageNameMatcher.compile(patterns);
+   }
+
    private Class<?> findInResolvedModules(String className)
    {
       boolean traceEnabled = log.isTraceEnabled();
@@ -252,7 +373,10 @@ public class ModuleClassLoaderExt extends ModuleClassLoader
          // Try to load the class from the candidate
          try
          {
+            // The module may not be loaded yet or may have been removed since the snapshot was taken
             Module candidate = moduleManager.getModule(aux);
+            if (candidate == null)
+               continue;
 
             if (traceEnabled)
                log.trace("Attempt to find class dynamically [" + className + "] in " + candidate + " ...");
@@ -0,0 +1,83 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.jboss.modules.PathFilter;
+
+/**
+ * An immutable {@link PathFilter} that accepts a fixed set of paths.
+ * 
+ * The paths are held in a sorted array, which is searched with a binary search. 
+ * Filters with the same paths are equal, so that a single instance can be shared 
+ * by all dependencies that import the same set of paths.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class PathSetFilter implements PathFilter
+{
+   private final String[] paths;
+   private final int hashCode;
+
+   public PathSetFilter(Collection<String> paths)
+   {
+      if (paths == null)
+         throw new IllegalArgumentException("Null paths");
+
+      this.paths = paths.toArray(new String[paths.size()]);
+      Arrays.sort(this.paths);
+      this.hashCode = Arrays.hashCode(this.paths);
+   }
+
+   @Override
+   public boolean accept(String path)
+   {
+      return Arrays.binarySearch(paths, path) >= 0;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return hashCode;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (obj instanceof PathSetFilter == false)
+         return false;
+      if (obj == this)
+         return true;
+
+      PathSetFilter other = (PathSetFilter)obj;
+      return hashCode == other.hashCode && Arrays.equals(paths, other.paths);
+   }
+
+   @Override
+   public String toString()
+   {
+      return "PathSetFilter" + Arrays.toString(paths);
+   }
+}
@@ -0,0 +1,81 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.loading;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.jboss.modules.Resource;
+
+/**
+ * A {@link Resource} that is backed by a {@link URL}.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+final class URLResource implements Resource
+{
+   private final String name;
+   private final URL url;
+
+   URLResource(String name, URL url)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (url == null)
+         throw new IllegalArgumentException("Null url");
+
+      this.name = name;
+      this.url = url;
+   }
+
+   @Override
+   public String getName()
+   {
+      return name;
+   }
+
+   @Override
+   public URL getURL()
+   {
+      return url;
+   }
+
+   @Override
+   public InputStream openStream() throws IOException
+   {
+      return url.openStream();
+   }
+
+   @Override
+   public long getSize()
+   {
+      return 0;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "URLResource[" + url + "]";
+   }
+}
@@ -32,6 +32,8 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -53,8 +55,13 @@ import org.jboss.osgi.vfs.VirtualFile;
 public final class VirtualFileResourceLoader implements ResourceLoader
 {
    private final VirtualFile virtualFile;
+   private final EntryIndex entryIndex;
+   private final ClassLoadingMetrics metrics;
    private final Set<String> localPaths;
    private final PathFilter exportFilter;
+   private final ConcurrentMap<String, PackageSpec> packageSpecs = new ConcurrentHashMap<String, PackageSpec>();
+   private volatile Manifest manifest;
+   private volatile boolean manifestRead;
 
    public VirtualFileResourceLoader(VirtualFile virtualFile)
    {
@@ -62,6 +69,16 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    }
 
    public VirtualFileResourceLoader(VirtualFile virtualFile, PathFilter exportFilter)
+   {
+      this(virtualFile, exportFilter, null);
+   }
+
+   public VirtualFileResourceLoader(VirtualFile virtualFile, PathFilter exportFilter, EntryIndex entryIndex)
+   {
+      this(virtualFile, exportFilter, entryIndex, null);
+   }
+
+   public VirtualFileResourceLoader(VirtualFile virtualFile, PathFilter exportFilter, EntryIndex entryIndex, ClassLoadingMetrics metrics)
    {
       if (virtualFile == null)
          throw new IllegalArgumentException("Null virtualFile");
@@ -70,7 +87,9 @@ public final class VirtualFileResourceLoader implements ResourceLoader
 
       this.virtualFile = virtualFile;
       this.exportFilter = exportFilter;
-      this.localPaths = getLocalPaths();
+      this.entryIndex = entryIndex;
+      this.metrics = metrics;
+      this.localPaths = (entryIndex != null ? entryIndex.getLocalPaths() : getLocalPaths());
    }
 
    @Override
@@ -93,6 +112,7 @@ public final class VirtualFileResourceLoader implements ResourceLoader
       if (child == null)
          return null;
 
+      long start = System.nanoTime();
       ClassSpec spec = new ClassSpec();
       InputStream is = child.openStream();
       try
@@ -100,6 +120,8 @@ public final class VirtualFileResourceLoader implements ResourceLoader
          ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
          VFSUtils.copyStream(is, os);
          spec.setBytes(os.toByteArray());
+         if (metrics != null)
+            metrics.classRead(System.nanoTime() - start);
          return spec;
       }
       finally
@@ -111,25 +133,41 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    @Override
    public PackageSpec getPackageSpec(String name) throws IOException
    {
-      PackageSpec spec = new PackageSpec();
-      Manifest manifest = VFSUtils.getManifest(virtualFile);
-      if (manifest == null)
+      PackageSpec spec = packageSpecs.get(name);
+      if (spec == null)
       {
-         return spec;
+         spec = new PackageSpec();
+         Manifest manifest = getManifest();
+         if (manifest != null)
+         {
+            Attributes mainAttribute = manifest.getMainAttributes();
+            Attributes entryAttribute = manifest.getAttributes(name);
+            spec.setSpecTitle(getDefinedAttribute(Attributes.Name.SPECIFICATION_TITLE, entryAttribute, mainAttribute));
+            spec.setSpecVersion(getDefinedAttribute(Attributes.Name.SPECIFICATION_VERSION, entryAttribute, mainAttribute));
+            spec.setSpecVendor(getDefinedAttribute(Attributes.Name.SPECIFICATION_VENDOR, entryAttribute, mainAttribute));
+            spec.setImplTitle(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_TITLE, entryAttribute, mainAttribute));
+            spec.setImplVersion(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VERSION, entryAttribute, mainAttribute));
+            spec.setImplVendor(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, entryAttribute, mainAttribute));
+            if (Boolean.parseBoolean(getDefinedAttribute(Attributes.Name.SEALED, entryAttribute, mainAttribute)))
+            {
+               spec.setSealBase(virtualFile.toURL());
+            }
+         }
+         PackageSpec existing = packageSpecs.putIfAbsent(name, spec);
+         spec = (existing != null ? existing : spec);
       }
-      Attributes mainAttribute = manifest.getAttributes(name);
-      Attributes entryAttribute = manifest.getAttributes(name);
-      spec.setSpecTitle(getDefinedAttribute(Attributes.Name.SPECIFICATION_TITLE, entryAttribute, mainAttribute));
-      spec.setSpecVersion(getDefinedAttribute(Attributes.Name.SPECIFICATION_VERSION, entryAttribute, mainAttribute));
-      spec.setSpecVendor(getDefinedAttribute(Attributes.Name.SPECIFICATION_VENDOR, entryAttribute, mainAttribute));
-      spec.setImplTitle(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_TITLE, entryAttribute, mainAttribute));
-      spec.setImplVersion(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VERSION, entryAttribute, mainAttribute));
-      spec.setImplVendor(getDefinedAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, entryAttribute, mainAttribute));
-      if (Boolean.parseBoolean(getDefinedAttribute(Attributes.Name.SEALED, entryAttribute, mainAttribute)))
+      return spec;
+   }
+
+   private Manifest getManifest() throws IOException
+   {
+      // The manifest is read at most once per loader
+      if (manifestRead == false)
       {
-         spec.setSealBase(virtualFile.toURL());
+         manifest = VFSUtils.getManifest(virtualFile);
+         manifestRead = true;
       }
-      return spec;
+      return manifest;
    }
 
    private static String getDefinedAttribute(Attributes.Name name, Attributes entryAttribute, Attributes mainAttribute)
@@ -143,11 +181,15 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    {
       try
       {
+         if (entryIndex != null && entryIndex.hasEntry(name) == false)
+            return null;
+
          VirtualFile child = virtualFile.getChild(name);
          if (child == null)
             return null;
 
-         return new VirtualResource(child);
+         long size = (entryIndex != null ? Math.max(entryIndex.getSize(name), 0) : 0);
+         return new VirtualResource(child, size);
       }
       catch (IOException ex)
       {
@@ -208,12 +250,19 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    static class VirtualResource implements Resource
    {
       VirtualFile child;
+      long size;
 
       VirtualResource(VirtualFile child)
+      {
+         this(child, 0);
+      }
+
+      VirtualResource(VirtualFile child, long size)
       {
          if (child == null)
             throw new IllegalArgumentException("Null child");
          this.child = child;
+         this.size = size;
       }
 
       @Override
@@ -244,7 +293,7 @@ public final class VirtualFileResourceLoader implements ResourceLoader
       @Override
       public long getSize()
       {
-         return 0;
+         return size;
       }
    }
 }
@@ -23,6 +23,14 @@ package org.jboss.osgi.container.plugin;
 
 //$Id$
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
 import org.jboss.osgi.container.bundle.BundleManager;
 
 /**
@@ -72,6 +80,35 @@ public abstract class AbstractPlugin implements Plugin
       // do nothing
    }
 
+   /**
+    * Get the name of an MBean that belongs to this framework. 
+    * The framework id distinguishes frameworks that share the platform MBeanServer.
+    */
+   public ObjectName getFrameworkObjectName(String name) throws MalformedObjectNameException
+   {
+      return new ObjectName(name + ",framework=" + ObjectName.quote(bundleManager.getFrameworkId()));
+   }
+
+   /**
+    * Create a fixed pool of daemon threads, which are named after the given prefix.
+    * Daemon threads do not keep the VM alive when the framework is not stopped.
+    */
+   protected static ExecutorService newDaemonThreadPool(final String namePrefix, int threads)
+   {
+      return Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, namePrefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
    public <T extends Plugin> T getPlugin(Class<T> clazz)
    {
       return bundleManager.getPlugin(clazz);
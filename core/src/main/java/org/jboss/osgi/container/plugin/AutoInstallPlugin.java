@@ -31,6 +31,12 @@ import org.osgi.framework.BundleException;
  */
 public interface AutoInstallPlugin extends Plugin
 {
+   /** The framework property that defines the number of threads that start the auto start bundles */
+   String PROP_STARTUP_PARALLELISM = "org.jboss.osgi.startup.parallelism";
+
+   /** The framework property that defines how long in milliseconds an auto start bundle is given to start */
+   String PROP_STARTUP_TIMEOUT = "org.jboss.osgi.startup.timeout";
+
    void installBundles() throws BundleException;
 
    void startBundles() throws BundleException;
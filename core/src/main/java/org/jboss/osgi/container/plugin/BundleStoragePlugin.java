@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 
 /**
@@ -45,5 +46,21 @@ public interface BundleStoragePlugin extends Plugin
    
    File storeBundleStream(String location, InputStream input, int revisionCount) throws IOException;
 
+   /**
+    * Get a file in the cache area that is shared by all bundles with the same content.
+    * The cache is keyed by the digest of the content, so that it survives bundle 
+    * reinstallation and framework restart. Cache entries whose key was not used 
+    * while the framework was running are evicted when the framework stops.
+    * @param contentKey The key obtained from {@link #getContentKey(VirtualFile)}
+    */
+   File getContentCacheFile(String contentKey, String filename);
+
+   /**
+    * Get the digest of the content that keys the cache area.
+    * The digest of a stored bundle stream is computed once when the stream is stored. 
+    * @return The key or null if the content root is not backed by a physical file
+    */
+   String getContentKey(VirtualFile contentRoot);
+
    void cleanStorage(String propValue);
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin;
+
+import java.util.List;
+
+import org.jboss.modules.Module;
+import org.jboss.osgi.container.bundle.AbstractRevision;
+
+/**
+ * A plugin that tracks the class loaders of modules that were removed from the framework.
+ * 
+ * A class loader should become unreachable once its module is removed. A class loader that 
+ * survives several garbage collections is reported as a suspected leak, together with 
+ * the services, listeners and threads that may retain it.
+ * 
+ * The plugin is registered as a service with the system context and as a 
+ * {@link ClassLoaderLeakDetectorMBean} with the platform MBeanServer.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public interface ClassLoaderLeakDetectorPlugin extends Plugin 
+{
+   /**
+    * Track the class loader of a module that was removed from the framework
+    */
+   void moduleRemoved(AbstractRevision bundleRev, Module module);
+
+   /**
+    * Get the number of removed modules whose class loader was not yet collected
+    */
+   int getRemovedModuleCount();
+
+   /**
+    * Get the removed modules whose class loader survived several garbage collections
+    */
+   List<String> getSuspectedLeaks();
+
+   /**
+    * Run the garbage collector several times and get the removed modules whose class loader survived
+    */
+   List<String> checkLeaks();
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin;
+
+/**
+ * The management view of the class loading metrics of a bundle.
+ * 
+ * The values are summed over all revisions of the bundle. Times are in nanoseconds.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public interface ClassLoadingMetricsMBean
+{
+   long getBundleId();
+
+   String getSymbolicName();
+
+   /** The number of classes defined from the bundle content */
+   long getClassesDefined();
+
+   /** The number of class bytes defined from the bundle content */
+   long getBytesDefined();
+
+   /** The time spent defining classes from the bundle content */
+   long getDefineTimeNanos();
+
+   /** The time spent reading class bytes from the bundle content */
+   long getReadTimeNanos();
+
+   /** The time spent in successful and failed class loads */
+   long getLoadTimeNanos();
+
+   /** The number of classes found in the bundle itself */
+   long getLocalHits();
+
+   /** The number of classes found through a wire to another module */
+   long getDelegatedHits();
+
+   /** The number of classes found through a dynamic import */
+   long getDynamicHits();
+
+   /** The number of classes that could not be found */
+   long getMisses();
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin;
+
+import java.util.List;
+
+import org.jboss.osgi.container.bundle.AbstractRevision;
+import org.jboss.osgi.resolver.XModule;
+
+/**
+ * A plugin that records the classes that bundles define during framework startup
+ * and preloads them on the next framework start.
+ * 
+ * Profiling is enabled by setting the recording period in seconds with the
+ * {@link #PROP_CLASSLOADING_PROFILE} framework property. The replay of recorded profiles 
+ * is enabled with the {@link #PROP_CLASSLOADING_PROFILE_REPLAY} framework property, 
+ * which defaults to true when recording is enabled.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public interface ClassLoadingProfilePlugin extends Plugin 
+{
+   /** The framework property that defines the recording period in seconds */
+   String PROP_CLASSLOADING_PROFILE = "org.jboss.osgi.classloading.profile";
+
+   /** The framework property that enables the replay of recorded profiles during framework startup */
+   String PROP_CLASSLOADING_PROFILE_REPLAY = "org.jboss.osgi.classloading.profile.replay";
+
+   /**
+    * True if class definitions are currently being recorded
+    */
+   boolean isRecording();
+
+   /**
+    * Record a class that was defined by the class loader of the given revision
+    */
+   void classDefined(AbstractRevision bundleRev, String className);
+
+   /**
+    * Preload the recorded classes for the given resolved modules. 
+    * The classes are loaded asynchronously, dependencies before their dependents.
+    * Profiles are only replayed until the framework has started, and only once per bundle content.
+    */
+   void replayProfiles(List<XModule> resModules);
+}
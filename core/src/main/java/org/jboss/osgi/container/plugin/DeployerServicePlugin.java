@@ -21,7 +21,11 @@
  */
 package org.jboss.osgi.container.plugin;
 
+import java.util.List;
+
 import org.jboss.osgi.deployment.deployer.DeployerService;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
 
 
 /**
@@ -32,4 +36,18 @@ import org.jboss.osgi.deployment.deployer.DeployerService;
  */
 public interface DeployerServicePlugin extends Plugin, DeployerService
 {
+   /** The framework property that defines the number of threads that prepare bundles for a bulk install */
+   String PROP_INSTALL_PARALLELISM = "org.jboss.osgi.install.parallelism";
+
+   /**
+    * Install the bundles from the given locations in one batch.
+    * 
+    * The bundle contents are mounted and parsed concurrently. The bundles are then
+    * registered in the order of the given locations, so that bundle ids are assigned
+    * in that order.
+    * 
+    * @return the installed bundles in the order of the given locations
+    * @throws BundleException if one of the bundles cannot be installed
+    */
+   List<Bundle> installBundles(List<String> locations) throws BundleException;
 }
\ No newline at end of file
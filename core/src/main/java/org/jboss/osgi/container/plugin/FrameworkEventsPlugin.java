@@ -22,6 +22,7 @@
 package org.jboss.osgi.container.plugin;
 
 import java.util.Collection;
+import java.util.Set;
 
 import org.jboss.osgi.container.bundle.ServiceState;
 import org.osgi.framework.Bundle;
@@ -63,6 +64,11 @@ public interface FrameworkEventsPlugin extends Plugin
    
    void removeServiceListeners(Bundle bundle);
    
+   /**
+    * Get the bundles that registered a listener whose class is defined by the given class loader
+    */
+   Set<Bundle> getListenerBundles(ClassLoader classLoader);
+   
    void fireBundleEvent(Bundle bundle, int type);
 
    void fireFrameworkEvent(Bundle bundle, int type, Throwable throwable);
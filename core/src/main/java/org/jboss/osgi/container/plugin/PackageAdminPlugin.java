@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.container.plugin;
 
+import org.jboss.osgi.resolver.XModule;
 import org.osgi.service.packageadmin.PackageAdmin;
 
 /**
@@ -31,4 +32,19 @@ import org.osgi.service.packageadmin.PackageAdmin;
  */
 public interface PackageAdminPlugin extends Plugin, PackageAdmin
 {
+   /** The framework property that defines the number of threads that stop and start bundles on refresh */
+   String PROP_REFRESH_PARALLELISM = "org.jboss.osgi.refresh.parallelism";
+
+   /** The framework property that defines how long in milliseconds a bundle is given to stop or start on refresh */
+   String PROP_REFRESH_TIMEOUT = "org.jboss.osgi.refresh.timeout";
+
+   /**
+    * Index the package capabilities of a module that was added to the resolver
+    */
+   void moduleAdded(XModule resModule);
+
+   /**
+    * Remove the package capabilities of a module that was removed from the resolver
+    */
+   void moduleRemoved(XModule resModule);
 }
\ No newline at end of file
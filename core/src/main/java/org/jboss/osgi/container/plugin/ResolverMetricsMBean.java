@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin;
+
+/**
+ * The management view of the resolver runs of the {@link ResolverPlugin}.
+ * 
+ * Every resolver run resolves a batch of resolve requests. Times are in nanoseconds.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public interface ResolverMetricsMBean
+{
+   /** The object name of the MBean */
+   String OBJECT_NAME = "jboss.osgi:service=ResolverMetrics";
+
+   /** The number of resolver runs */
+   long getResolverRuns();
+
+   /** The number of resolver runs that took longer than the slow threshold */
+   long getSlowResolverRuns();
+
+   /** The number of unresolved modules that were passed to the resolver */
+   long getModulesRequested();
+
+   /** The number of modules that were marked resolved */
+   long getModulesResolved();
+
+   /** The number of wires of the resolved modules */
+   long getWiresCreated();
+
+   /** The number of modules that could not be resolved */
+   long getResolveFailures();
+
+   /** The number of modules that are currently known to the resolver */
+   int getCandidateModules();
+
+   /** The time spent in the resolver */
+   long getResolveTimeNanos();
+
+   /** The time spent applying the resolver results */
+   long getApplyTimeNanos();
+
+   /** The duration of the slowest resolver run */
+   long getMaxRunTimeNanos();
+
+   /** The duration of the last resolver run */
+   long getLastRunTimeNanos();
+
+   /** The most recent resolver failures with their cause */
+   String[] getRecentFailures();
+
+   /** Reset all counters */
+   void reset();
+}
@@ -23,6 +23,7 @@ package org.jboss.osgi.container.plugin;
 
 // $Id$
 
+import java.util.Collection;
 import java.util.Set;
 
 import org.jboss.osgi.resolver.XModule;
@@ -38,6 +39,15 @@ import org.osgi.framework.BundleException;
  */
 public interface ResolverPlugin extends Plugin
 {
+   /** The framework property that defines the number of threads that apply resolver results */
+   String PROP_RESOLVER_PARALLELISM = "org.jboss.osgi.resolver.parallelism";
+
+   /** The framework property that defines how long in milliseconds resolve requests are collected into a batch */
+   String PROP_RESOLVER_BATCH_WINDOW = "org.jboss.osgi.resolver.batch.window";
+
+   /** The framework property that defines after how many milliseconds a resolver run is reported as slow */
+   String PROP_RESOLVER_SLOW_THRESHOLD = "org.jboss.osgi.resolver.slow.threshold";
+
    /**
     * Create a unique module identifier
     */
@@ -48,6 +58,11 @@ public interface ResolverPlugin extends Plugin
     */
    XResolver getResolver();
 
+   /**
+    * Get the metrics of the resolver runs
+    */
+   ResolverMetricsMBean getResolverMetrics();
+
    /**
     * Add a module to the resolver.
     * 
@@ -65,6 +80,8 @@ public interface ResolverPlugin extends Plugin
    /**
     * Resolve the given modules.
     * 
+    * Concurrent requests are coalesced into a single resolver run.
+    * 
     * @param module the module to resolve
     * @return The set of resolved modules or an empty set
     * @throws BundleException If the resolver could not resolve the module
@@ -78,4 +95,14 @@ public interface ResolverPlugin extends Plugin
     * @return True if all modules could be resolved
     */
    boolean resolveAll(Set<XModule> modules);
+
+   /**
+    * Get the transitive closure of the resolved modules that depend on the given modules.
+    * 
+    * A module depends on the modules it is wired to and on its attached fragments. 
+    * 
+    * @param modules the modules that are depended upon
+    * @return The given modules together with all their dependents
+    */
+   Set<XModule> getDependentModules(Collection<XModule> modules);
 }
\ No newline at end of file
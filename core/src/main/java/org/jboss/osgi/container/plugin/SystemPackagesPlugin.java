@@ -48,6 +48,14 @@ public interface SystemPackagesPlugin extends Plugin
     */
    boolean isBootDelegationPackage(String name);
 
+   /**
+    * Return whether the package of the given class name is a boot delegation package.
+    * 
+    * @param className The fully qualified class name
+    * @return True if the class must be loaded through boot delegation.
+    */
+   boolean isBootDelegationClass(String className);
+
    /**
     * Get the list of defined system packages
     * 
@@ -24,16 +24,26 @@ package org.jboss.osgi.container.plugin.internal;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.FrameworkState;
+import org.jboss.osgi.container.bundle.HostBundle;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.AutoInstallPlugin;
+import org.jboss.osgi.container.plugin.DeployerServicePlugin;
+import org.jboss.osgi.container.plugin.ResolverPlugin;
+import org.jboss.osgi.container.plugin.StartLevelPlugin;
 import org.jboss.osgi.container.util.URLHelper;
+import org.jboss.osgi.resolver.XModule;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 
@@ -51,6 +61,8 @@ public class AutoInstallPluginImpl extends AbstractPlugin implements AutoInstall
    private List<URL> autoInstall;
    private List<URL> autoStart;
    private Map<URL, Bundle> autoBundles;
+   private int startupParallelism = Runtime.getRuntime().availableProcessors();
+   private long startupTimeout = 60000;
 
    public AutoInstallPluginImpl(BundleManager bundleManager)
    {
@@ -67,6 +79,14 @@ public class AutoInstallPluginImpl extends AbstractPlugin implements AutoInstall
       this.autoStart = autoStart;
    }
 
+   @Override
+   public void initPlugin()
+   {
+      FrameworkState frameworkState = getBundleManager().getFrameworkState();
+      startupParallelism = frameworkState.getIntProperty(PROP_STARTUP_PARALLELISM, startupParallelism);
+      startupTimeout = frameworkState.getLongProperty(PROP_STARTUP_TIMEOUT, startupTimeout);
+   }
+
    private void initializePlugin()
    {
       if (autoInstall == null && autoStart == null)
@@ -112,31 +132,141 @@ public class AutoInstallPluginImpl extends AbstractPlugin implements AutoInstall
       // Install autoInstall bundles
       if (autoInstall != null)
       {
+         List<String> locations = new ArrayList<String>();
          for (URL bundleURL : autoInstall)
-         {
+            locations.add(bundleURL.toExternalForm());
 
-            Bundle bundle = getBundleManager().installBundle(bundleURL);
-            registerBundle(bundleURL, bundle);
-         }
+         long start = System.nanoTime();
+         DeployerServicePlugin deployer = getPlugin(DeployerServicePlugin.class);
+         List<Bundle> bundles = deployer.installBundles(locations);
+         for (int i = 0; i < autoInstall.size(); i++)
+            registerBundle(autoInstall.get(i), bundles.get(i));
+
+         log.debug("Installed " + locations.size() + " auto install bundles in " + getMillis(start) + "ms");
       }
    }
 
    public void startBundles() throws BundleException
    {
       // Start autoStart bundles
-      if (autoStart != null)
+      if (autoStart == null)
+         return;
+
+      List<Bundle> bundles = new ArrayList<Bundle>();
+      for (URL bundleURL : autoStart)
       {
-         for (URL bundleURL : autoStart)
+         Bundle bundle = autoBundles.get(bundleURL);
+         if (bundle != null && bundles.contains(bundle) == false)
+            bundles.add(bundle);
+      }
+
+      // Resolve the bundles in one batch
+      long start = System.nanoTime();
+      Set<XModule> unresolved = new HashSet<XModule>();
+      for (Bundle bundle : bundles)
+      {
+         AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
+         if (bundleState.getState() == Bundle.INSTALLED)
+            unresolved.add(bundleState.getResolverModule());
+      }
+      if (unresolved.isEmpty() == false)
+      {
+         ResolverPlugin resolverPlugin = getPlugin(ResolverPlugin.class);
+         resolverPlugin.resolveAll(unresolved);
+         log.debug("Resolved " + unresolved.size() + " auto start bundles in " + getMillis(start) + "ms");
+      }
+
+      // Start the host bundles in waves ordered by start level and dependencies, anything else in the calling thread.
+      // Within a wave the bundles keep the configured order.
+      List<HostBundle> hostBundles = new ArrayList<HostBundle>();
+      for (Bundle bundle : bundles)
+      {
+         AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
+         if (bundleState instanceof HostBundle)
+            hostBundles.add((HostBundle)bundleState);
+         else
+            bundle.start();
+      }
+
+      start = System.nanoTime();
+      ExecutorService executor = getStartupExecutor();
+      try
+      {
+         // The failures are not fired as framework errors, the first one fails the framework start
+         ParallelBundleLifecycle lifecycle = new ParallelBundleLifecycle(null, executor, startupTimeout);
+         boolean useStartLevels = getOptionalPlugin(StartLevelPlugin.class) != null;
+         List<List<HostBundle>> startWaves = ParallelBundleLifecycle.getStartWaves(hostBundles, useStartLevels);
+         lifecycle.start(startWaves, 0, true);
+
+         Map<HostBundle, Long> timings = lifecycle.getTimings();
+         for (HostBundle hostBundle : hostBundles)
          {
-            Bundle bundle = autoBundles.get(bundleURL);
-            if (bundle != null)
+            Long millis = timings.get(hostBundle);
+            if (millis != null)
+               log.debug("Started " + hostBundle + " in " + millis + "ms");
+         }
+
+         log.debug("Started " + timings.size() + " auto start bundles in " + startWaves.size() + " waves in " + getMillis(start) + "ms");
+
+         // Fail on the first failure in the configured order, log the failures of the other bundles in the same wave
+         BundleException firstFailure = null;
+         for (HostBundle hostBundle : hostBundles)
+         {
+            Throwable failure = lifecycle.getFailures().get(hostBundle);
+            if (failure == null)
+               continue;
+
+            if (firstFailure == null)
+            {
+               if (failure instanceof BundleException)
+                  firstFailure = (BundleException)failure;
+               else
+                  firstFailure = new BundleException("Cannot start bundle: " + hostBundle, failure);
+            }
+            else
             {
-               bundle.start();
+               log.error("Cannot start bundle: " + hostBundle, failure);
             }
          }
+         if (firstFailure != null)
+            throw firstFailure;
+      }
+      finally
+      {
+         if (executor != null)
+            shutdownStartupExecutor(executor);
+      }
+   }
+
+   // Let running activators complete, they are not interrupted
+   private void shutdownStartupExecutor(ExecutorService executor)
+   {
+      executor.shutdown();
+      try
+      {
+         if (executor.awaitTermination(startupTimeout, TimeUnit.MILLISECONDS) == false)
+            log.warn("Auto start bundles still starting after " + startupTimeout + "ms");
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
       }
    }
 
+   // The executor is only needed once on framework startup
+   private ExecutorService getStartupExecutor()
+   {
+      if (startupParallelism <= 1)
+         return null;
+
+      return newDaemonThreadPool("AutoStart", startupParallelism);
+   }
+
+   private static long getMillis(long start)
+   {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+   }
+
    private void addAutoInstall(URL bundleURL)
    {
       if (autoInstall == null)
@@ -23,11 +23,21 @@ package org.jboss.osgi.container.plugin.internal;
 
 //$Id$
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.container.bundle.BundleManager;
@@ -35,6 +45,7 @@ import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.BundleStoragePlugin;
 import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
@@ -49,8 +60,13 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
    // Provide logging
    final Logger log = Logger.getLogger(BundleStoragePluginImpl.class);
 
+   // The suffix of the file that holds the digest of a stored bundle stream
+   private static final String DIGEST_SUFFIX = ".md5";
+
    private String storageArea;
    private File bundleStreamDir;
+   // The content cache keys that were used since the framework started
+   private final Set<String> referencedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
    public BundleStoragePluginImpl(BundleManager bundleManager)
    {
@@ -146,23 +162,208 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
          file = new File(streamdir + File.separator + filename + ".jar");
       }
 
-      FileOutputStream fos = new FileOutputStream(file);
+      // The digest of the content is computed while the stream is stored
+      DigestInputStream digestInput = new DigestInputStream(input, getMessageDigest());
+      File digestFile = new File(file.getPath() + DIGEST_SUFFIX);
+      boolean stored = false;
       try
       {
-         log.debug("Store bundle stream: " + file);
-         VFSUtils.copyStream(input, fos);
+         FileOutputStream fos = new FileOutputStream(file);
+         try
+         {
+            log.debug("Store bundle stream: " + file);
+            VFSUtils.copyStream(digestInput, fos);
+         }
+         finally
+         {
+            fos.close();
+         }
+         writeDigestFile(digestFile, toHexString(digestInput.getMessageDigest().digest()));
+         stored = true;
+      }
+      finally
+      {
+         if (stored == false)
+         {
+            file.delete();
+            digestFile.delete();
+         }
+      }
+
+      return file;
+   }
+
+   @Override
+   public File getContentCacheFile(String contentKey, String filename)
+   {
+      if (contentKey == null)
+         throw new IllegalArgumentException("Null contentKey");
+      if (filename == null)
+         throw new IllegalArgumentException("Null filename");
+
+      referencedKeys.add(contentKey);
+      File cacheFile = new File(getContentCacheDir() + File.separator + contentKey + File.separator + filename);
+      cacheFile.getParentFile().mkdirs();
+      return cacheFile;
+   }
+
+   @Override
+   public String getContentKey(VirtualFile contentRoot)
+   {
+      if (contentRoot == null)
+         throw new IllegalArgumentException("Null contentRoot");
+
+      File contentFile = new File(contentRoot.getPathName());
+      if (contentFile.isFile() == false)
+         return null;
+
+      try
+      {
+         // A stored bundle stream has its digest next to it
+         File digestFile = new File(contentFile.getPath() + DIGEST_SUFFIX);
+         if (digestFile.isFile())
+         {
+            String digest = readDigestFile(digestFile);
+            if (digest != null && digest.length() > 0)
+               return digest;
+         }
+         return getCachedContentDigest(contentFile);
+      }
+      catch (IOException ex)
+      {
+         log.debug("Cannot obtain content digest for: " + contentFile, ex);
+         return null;
+      }
+   }
+
+   // The digest of other content is cached in the storage area for as long as 
+   // the size and the modification time of the content do not change
+   private String getCachedContentDigest(File contentFile) throws IOException
+   {
+      MessageDigest md = getMessageDigest();
+      String pathKey = toHexString(md.digest(contentFile.getAbsolutePath().getBytes("UTF-8")));
+      File digestFile = new File(getStorageArea() + File.separator + "content-digests" + File.separator + pathKey + DIGEST_SUFFIX);
+      String stamp = contentFile.length() + ":" + contentFile.lastModified() + ":";
+      if (digestFile.isFile())
+      {
+         // A concurrent install of the same content may have written a partial line
+         String line = readDigestFile(digestFile);
+         if (line != null && line.startsWith(stamp) && line.length() == stamp.length() + 2 * md.getDigestLength())
+            return line.substring(stamp.length());
+      }
+
+      String digest = getContentDigest(contentFile);
+      try
+      {
+         digestFile.getParentFile().mkdirs();
+         writeDigestFile(digestFile, stamp + digest);
       }
       catch (IOException ex)
       {
-         file.delete();
-         throw ex;
+         log.debug("Cannot cache content digest: " + digestFile, ex);
+      }
+      return digest;
+   }
+
+   private static String readDigestFile(File digestFile) throws IOException
+   {
+      BufferedReader reader = new BufferedReader(new FileReader(digestFile));
+      try
+      {
+         return reader.readLine();
       }
       finally
       {
-         fos.close();
+         reader.close();
       }
+   }
 
-      return file;
+   private static void writeDigestFile(File digestFile, String content) throws IOException
+   {
+      FileWriter writer = new FileWriter(digestFile);
+      try
+      {
+         writer.write(content);
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   private String getContentDigest(File file) throws IOException
+   {
+      MessageDigest md = getMessageDigest();
+      InputStream input = new FileInputStream(file);
+      try
+      {
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = input.read(buffer)) > 0)
+            md.update(buffer, 0, read);
+      }
+      finally
+      {
+         input.close();
+      }
+      return toHexString(md.digest());
+   }
+
+   private static MessageDigest getMessageDigest()
+   {
+      try
+      {
+         return MessageDigest.getInstance("MD5");
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+         throw new IllegalStateException("Cannot obtain MD5 digest", ex);
+      }
+   }
+
+   private static String toHexString(byte[] bytes)
+   {
+      StringBuilder builder = new StringBuilder();
+      for (byte b : bytes)
+      {
+         builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+         builder.append(Character.forDigit(b & 0xf, 16));
+      }
+      return builder.toString();
+   }
+
+   private File getContentCacheDir()
+   {
+      return new File(getStorageArea() + File.separator + "content-cache");
+   }
+
+   @Override
+   public void stopPlugin()
+   {
+      // Nothing was installed, keep the cache for the next run
+      if (referencedKeys.isEmpty())
+         return;
+
+      // Evict the cache entries of content that was not used by this run
+      String[] contentKeys = getContentCacheDir().list();
+      if (contentKeys != null)
+      {
+         for (String contentKey : contentKeys)
+         {
+            if (referencedKeys.contains(contentKey))
+               continue;
+
+            try
+            {
+               deleteRecursively(new File(getContentCacheDir(), contentKey));
+            }
+            catch (IOException ex)
+            {
+               log.debug("Cannot evict content cache: " + contentKey, ex);
+            }
+         }
+      }
+      referencedKeys.clear();
    }
 
    @Override
@@ -0,0 +1,285 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jboss.logging.Logger;
+import org.jboss.modules.Module;
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.AbstractRevision;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.ServiceState;
+import org.jboss.osgi.container.plugin.AbstractPlugin;
+import org.jboss.osgi.container.plugin.ClassLoaderLeakDetectorMBean;
+import org.jboss.osgi.container.plugin.ClassLoaderLeakDetectorPlugin;
+import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * A plugin that tracks the class loaders of modules that were removed from the framework.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassLoaderLeakDetectorPluginImpl extends AbstractPlugin implements ClassLoaderLeakDetectorPlugin
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(ClassLoaderLeakDetectorPluginImpl.class);
+
+   // The number of garbage collections a class loader must survive to be reported
+   private static final int GC_CYCLES = 3;
+
+   private final ReferenceQueue<ClassLoader> referenceQueue = new ReferenceQueue<ClassLoader>();
+   private final Map<Reference<? extends ClassLoader>, RemovedModule> removedModules = new ConcurrentHashMap<Reference<? extends ClassLoader>, RemovedModule>();
+   private ServiceRegistration registration;
+   private ObjectName objectName;
+
+   public ClassLoaderLeakDetectorPluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void startPlugin()
+   {
+      BundleContext sc = getBundleManager().getSystemContext();
+      registration = sc.registerService(ClassLoaderLeakDetectorPlugin.class.getName(), this, null);
+
+      try
+      {
+         ObjectName oname = getFrameworkObjectName(ClassLoaderLeakDetectorMBean.OBJECT_NAME);
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         server.registerMBean(new StandardMBean(new LeakDetectorMBean(), ClassLoaderLeakDetectorMBean.class), oname);
+         objectName = oname;
+      }
+      catch (Exception ex)
+      {
+         log.warn("Cannot register class loader leak detector", ex);
+      }
+   }
+
+   @Override
+   public void stopPlugin()
+   {
+      if (objectName != null)
+      {
+         try
+         {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+         }
+         catch (Exception ex)
+         {
+            log.warn("Cannot unregister class loader leak detector", ex);
+         }
+         objectName = null;
+      }
+
+      if (registration != null)
+      {
+         registration.unregister();
+         registration = null;
+      }
+   }
+
+   @Override
+   public void moduleRemoved(AbstractRevision bundleRev, Module module)
+   {
+      if (bundleRev == null)
+         throw new IllegalArgumentException("Null bundleRev");
+      if (module == null)
+         throw new IllegalArgumentException("Null module");
+
+      expungeCollected();
+
+      ClassLoader classLoader = module.getClassLoader();
+      WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(classLoader, referenceQueue);
+      removedModules.put(ref, new RemovedModule(module.getIdentifier(), bundleRev.getBundleState(), getCollectionCount()));
+      log.debug("Track class loader of removed module: " + module.getIdentifier());
+   }
+
+   @Override
+   public int getRemovedModuleCount()
+   {
+      expungeCollected();
+      return removedModules.size();
+   }
+
+   @Override
+   public List<String> getSuspectedLeaks()
+   {
+      expungeCollected();
+
+      long collectionCount = getCollectionCount();
+      List<String> result = new ArrayList<String>();
+      for (Map.Entry<Reference<? extends ClassLoader>, RemovedModule> entry : removedModules.entrySet())
+      {
+         RemovedModule removed = entry.getValue();
+         ClassLoader classLoader = entry.getKey().get();
+         if (classLoader != null && collectionCount - removed.collectionCount >= GC_CYCLES)
+            result.add(getLeakDescription(removed, classLoader));
+      }
+      return result;
+   }
+
+   @Override
+   public List<String> checkLeaks()
+   {
+      for (int i = 0; i < GC_CYCLES; i++)
+      {
+         System.gc();
+         expungeCollected();
+      }
+
+      List<String> result = new ArrayList<String>();
+      for (Map.Entry<Reference<? extends ClassLoader>, RemovedModule> entry : removedModules.entrySet())
+      {
+         ClassLoader classLoader = entry.getKey().get();
+         if (classLoader != null)
+            result.add(getLeakDescription(entry.getValue(), classLoader));
+      }
+      for (String leak : result)
+         log.warn("Suspected class loader leak: " + leak);
+
+      return result;
+   }
+
+   private void expungeCollected()
+   {
+      Reference<? extends ClassLoader> ref;
+      while ((ref = referenceQueue.poll()) != null)
+      {
+         RemovedModule removed = removedModules.remove(ref);
+         if (removed != null)
+            log.debug("Class loader collected: " + removed.identifier);
+      }
+   }
+
+   private long getCollectionCount()
+   {
+      long result = 0;
+      for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+         result += Math.max(0, gcBean.getCollectionCount());
+      return result;
+   }
+
+   // Describe the leak together with the likely retainers of the class loader
+   private String getLeakDescription(RemovedModule removed, ClassLoader classLoader)
+   {
+      StringBuilder builder = new StringBuilder(removed.identifier.toString());
+      builder.append(" of " + removed.bundleDescription);
+      builder.append(" removed " + (System.currentTimeMillis() - removed.removedAt) / 1000 + "s ago");
+
+      List<String> retainers = new ArrayList<String>();
+      ServiceManagerPlugin servicePlugin = getOptionalPlugin(ServiceManagerPlugin.class);
+      if (servicePlugin != null)
+      {
+         for (AbstractBundle bundleState : getBundleManager().getBundles())
+         {
+            for (ServiceState serviceState : servicePlugin.getRegisteredServices(bundleState))
+            {
+               Object value = serviceState.getRawValue();
+               if (value != null && value.getClass().getClassLoader() == classLoader)
+                  retainers.add("service " + serviceState.getServiceId() + " registered by " + bundleState);
+            }
+         }
+      }
+
+      FrameworkEventsPlugin eventsPlugin = getOptionalPlugin(FrameworkEventsPlugin.class);
+      if (eventsPlugin != null)
+      {
+         Set<Bundle> listenerBundles = eventsPlugin.getListenerBundles(classLoader);
+         for (Bundle bundle : listenerBundles)
+            retainers.add("listener registered by " + bundle);
+      }
+
+      for (Thread thread : Thread.getAllStackTraces().keySet())
+      {
+         if (thread.getContextClassLoader() == classLoader)
+            retainers.add("context class loader of thread " + thread.getName());
+         else if (thread.getClass().getClassLoader() == classLoader)
+            retainers.add("thread " + thread.getName());
+      }
+
+      if (retainers.isEmpty() == false)
+         builder.append(", retained by " + retainers);
+
+      return builder.toString();
+   }
+
+   static class RemovedModule
+   {
+      private final ModuleIdentifier identifier;
+      private final String bundleDescription;
+      private final long collectionCount;
+      private final long removedAt;
+
+      RemovedModule(ModuleIdentifier identifier, AbstractBundle bundleState, long collectionCount)
+      {
+         // Do not hold on to the bundle, which references the class loader
+         this.identifier = identifier;
+         this.bundleDescription = "bundle " + bundleState.getBundleId() + " " + bundleState.getCanonicalName();
+         this.collectionCount = collectionCount;
+         this.removedAt = System.currentTimeMillis();
+      }
+   }
+
+   class LeakDetectorMBean implements ClassLoaderLeakDetectorMBean
+   {
+      @Override
+      public int getRemovedModuleCount()
+      {
+         return ClassLoaderLeakDetectorPluginImpl.this.getRemovedModuleCount();
+      }
+
+      @Override
+      public String[] getSuspectedLeaks()
+      {
+         List<String> leaks = ClassLoaderLeakDetectorPluginImpl.this.getSuspectedLeaks();
+         return leaks.toArray(new String[leaks.size()]);
+      }
+
+      @Override
+      public String[] checkLeaks()
+      {
+         List<String> leaks = ClassLoaderLeakDetectorPluginImpl.this.checkLeaks();
+         return leaks.toArray(new String[leaks.size()]);
+      }
+   }
+}
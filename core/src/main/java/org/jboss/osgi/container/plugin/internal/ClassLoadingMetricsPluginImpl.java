@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.AbstractRevision;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.loading.ClassLoadingMetrics;
+import org.jboss.osgi.container.plugin.AbstractPlugin;
+import org.jboss.osgi.container.plugin.ClassLoadingMetricsMBean;
+import org.jboss.osgi.container.plugin.ClassLoadingMetricsPlugin;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * A plugin that exposes the class loading metrics of installed bundles.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassLoadingMetricsPluginImpl extends AbstractPlugin implements ClassLoadingMetricsPlugin
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(ClassLoadingMetricsPluginImpl.class);
+
+   private ServiceRegistration registration;
+   private SynchronousBundleListener listener;
+
+   public ClassLoadingMetricsPluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void startPlugin()
+   {
+      BundleContext sc = getBundleManager().getSystemContext();
+      registration = sc.registerService(ClassLoadingMetricsPlugin.class.getName(), this, null);
+
+      listener = new SynchronousBundleListener()
+      {
+         @Override
+         public void bundleChanged(BundleEvent event)
+         {
+            if (event.getType() == BundleEvent.INSTALLED)
+               registerMBean(event.getBundle());
+            else if (event.getType() == BundleEvent.UNINSTALLED)
+               unregisterMBean(event.getBundle());
+         }
+      };
+      sc.addBundleListener(listener);
+
+      for (AbstractBundle bundleState : getBundleManager().getBundles())
+         registerMBean(bundleState);
+   }
+
+   @Override
+   public void stopPlugin()
+   {
+      if (listener != null)
+      {
+         getBundleManager().getSystemContext().removeBundleListener(listener);
+         listener = null;
+      }
+
+      for (AbstractBundle bundleState : getBundleManager().getBundles())
+         unregisterMBean(bundleState);
+
+      if (registration != null)
+      {
+         registration.unregister();
+         registration = null;
+      }
+   }
+
+   @Override
+   public ClassLoadingMetricsMBean getClassLoadingMetrics(Bundle bundle)
+   {
+      if (bundle == null)
+         throw new IllegalArgumentException("Null bundle");
+
+      return new BundleClassLoadingMetrics(AbstractBundle.assertBundleState(bundle));
+   }
+
+   private void registerMBean(Bundle bundle)
+   {
+      try
+      {
+         ObjectName oname = getObjectName(bundle);
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(oname) == false)
+         {
+            ClassLoadingMetricsMBean metrics = getClassLoadingMetrics(bundle);
+            server.registerMBean(new StandardMBean(metrics, ClassLoadingMetricsMBean.class), oname);
+         }
+      }
+      catch (Exception ex)
+      {
+         log.warn("Cannot register class loading metrics for: " + bundle, ex);
+      }
+   }
+
+   private void unregisterMBean(Bundle bundle)
+   {
+      try
+      {
+         ObjectName oname = getObjectName(bundle);
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(oname))
+            server.unregisterMBean(oname);
+      }
+      catch (Exception ex)
+      {
+         log.warn("Cannot unregister class loading metrics for: " + bundle, ex);
+      }
+   }
+
+   private ObjectName getObjectName(Bundle bundle) throws Exception
+   {
+      return getFrameworkObjectName(OBJECT_NAME_PREFIX + bundle.getBundleId());
+   }
+
+   /**
+    * Sums the metrics of all revisions of a bundle at the time of the call
+    */
+   static class BundleClassLoadingMetrics implements ClassLoadingMetricsMBean
+   {
+      private final AbstractBundle bundleState;
+
+      BundleClassLoadingMetrics(AbstractBundle bundleState)
+      {
+         this.bundleState = bundleState;
+      }
+
+      private List<ClassLoadingMetrics> getMetrics()
+      {
+         List<ClassLoadingMetrics> result = new ArrayList<ClassLoadingMetrics>();
+         for (AbstractRevision rev : bundleState.getRevisions())
+            result.add(rev.getClassLoadingMetrics());
+         return result;
+      }
+
+      @Override
+      public long getBundleId()
+      {
+         return bundleState.getBundleId();
+      }
+
+      @Override
+      public String getSymbolicName()
+      {
+         return bundleState.getSymbolicName();
+      }
+
+      @Override
+      public long getClassesDefined()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getClassesDefined();
+         return result;
+      }
+
+      @Override
+      public long getBytesDefined()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getBytesDefined();
+         return result;
+      }
+
+      @Override
+      public long getDefineTimeNanos()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getDefineTimeNanos();
+         return result;
+      }
+
+      @Override
+      public long getReadTimeNanos()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getReadTimeNanos();
+         return result;
+      }
+
+      @Override
+      public long getLoadTimeNanos()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getLoadTimeNanos();
+         return result;
+      }
+
+      @Override
+      public long getLocalHits()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getLocalHits();
+         return result;
+      }
+
+      @Override
+      public long getDelegatedHits()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getDelegatedHits();
+         return result;
+      }
+
+      @Override
+      public long getDynamicHits()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getDynamicHits();
+         return result;
+      }
+
+      @Override
+      public long getMisses()
+      {
+         long result = 0;
+         for (ClassLoadingMetrics metrics : getMetrics())
+            result += metrics.getMisses();
+         return result;
+      }
+   }
+}
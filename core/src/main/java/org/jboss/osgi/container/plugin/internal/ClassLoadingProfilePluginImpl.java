@@ -0,0 +1,475 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.logging.Logger;
+import org.jboss.modules.Module;
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.container.bundle.AbstractRevision;
+import org.jboss.osgi.container.bundle.AbstractUserRevision;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkState;
+import org.jboss.osgi.container.bundle.ModuleManager;
+import org.jboss.osgi.container.plugin.AbstractPlugin;
+import org.jboss.osgi.container.plugin.BundleStoragePlugin;
+import org.jboss.osgi.container.plugin.ClassLoadingProfilePlugin;
+import org.jboss.osgi.container.plugin.ModuleManagerPlugin;
+import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XWire;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+
+/**
+ * A plugin that records and replays the classes that bundles define during framework startup.
+ * 
+ * The class names are recorded in definition order for the configured period after the 
+ * framework was started. The profile of a bundle is stored in the content cache of the 
+ * {@link BundleStoragePlugin}, so that it is found again for the same bundle content.
+ * Profiles are replayed for the bundles that are resolved before the framework STARTED event.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassLoadingProfilePluginImpl extends AbstractPlugin implements ClassLoadingProfilePlugin
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(ClassLoadingProfilePluginImpl.class);
+
+   // The name of the profile in the content cache
+   private static final String PROFILE_NAME = "classloading.profile";
+
+   // The recorded class names per revision
+   private final ConcurrentMap<AbstractRevision, Set<String>> profiles = new ConcurrentHashMap<AbstractRevision, Set<String>>();
+   // The recording period in milliseconds
+   private long recordingPeriod;
+   // The time at which recording stops, zero when not recording
+   private volatile long recordingDeadline;
+   private Timer recordingTimer;
+   // True if recorded profiles are replayed during framework startup
+   private boolean replayEnabled;
+   // Accepts replay tasks until the framework has started
+   private ExecutorService replayExecutor;
+   private volatile boolean replaying;
+   private FrameworkListener startupListener;
+   // The content keys that were already replayed
+   private final Set<String> replayedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+   public ClassLoadingProfilePluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void initPlugin()
+   {
+      FrameworkState frameworkState = getBundleManager().getFrameworkState();
+      recordingPeriod = frameworkState.getLongProperty(PROP_CLASSLOADING_PROFILE, recordingPeriod / 1000) * 1000;
+      String replay = frameworkState.getProperty(PROP_CLASSLOADING_PROFILE_REPLAY);
+      replayEnabled = (replay != null ? Boolean.parseBoolean(replay) : recordingPeriod > 0);
+   }
+
+   @Override
+   public synchronized void startPlugin()
+   {
+      if (replayEnabled == true)
+         startReplay();
+
+      if (recordingPeriod > 0)
+         startRecording();
+   }
+
+   private void startReplay()
+   {
+      replayExecutor = newDaemonThreadPool("ClassLoadingProfileReplay", Runtime.getRuntime().availableProcessors());
+      replayedKeys.clear();
+      replaying = true;
+
+      // The startup is complete with the STARTED event
+      startupListener = new FrameworkListener()
+      {
+         @Override
+         public void frameworkEvent(FrameworkEvent event)
+         {
+            if (event.getType() == FrameworkEvent.STARTED)
+               stopReplay();
+         }
+      };
+      getBundleManager().getSystemContext().addFrameworkListener(startupListener);
+   }
+
+   // Stop accepting replay tasks, the submitted tasks still complete
+   private synchronized void stopReplay()
+   {
+      replaying = false;
+      if (replayExecutor != null)
+         replayExecutor.shutdown();
+
+      if (startupListener != null)
+      {
+         try
+         {
+            getBundleManager().getSystemContext().removeFrameworkListener(startupListener);
+         }
+         catch (IllegalStateException ex)
+         {
+            // the system context is no longer valid
+         }
+         startupListener = null;
+      }
+   }
+
+   private void startRecording()
+   {
+      recordingDeadline = System.currentTimeMillis() + recordingPeriod;
+      recordingTimer = new Timer("ClassLoadingProfileRecorder", true);
+      recordingTimer.schedule(new TimerTask()
+      {
+         @Override
+         public void run()
+         {
+            stopRecording();
+         }
+      }, recordingPeriod);
+
+      log.debug("Recording class loading profiles for " + (recordingPeriod / 1000) + "sec");
+   }
+
+   @Override
+   public synchronized void stopPlugin()
+   {
+      stopRecording();
+
+      if (recordingTimer != null)
+      {
+         recordingTimer.cancel();
+         recordingTimer = null;
+      }
+      stopReplay();
+      if (replayExecutor != null)
+      {
+         replayExecutor.shutdownNow();
+         replayExecutor = null;
+      }
+   }
+
+   @Override
+   public boolean isRecording()
+   {
+      long deadline = recordingDeadline;
+      return deadline != 0 && System.currentTimeMillis() < deadline;
+   }
+
+   @Override
+   public void classDefined(AbstractRevision bundleRev, String className)
+   {
+      if (bundleRev == null)
+         throw new IllegalArgumentException("Null bundleRev");
+      if (className == null)
+         throw new IllegalArgumentException("Null className");
+
+      if (isRecording() == false || bundleRev instanceof AbstractUserRevision == false)
+         return;
+
+      Set<String> profile = profiles.get(bundleRev);
+      if (profile == null)
+      {
+         profile = Collections.synchronizedSet(new LinkedHashSet<String>());
+         Set<String> existing = profiles.putIfAbsent(bundleRev, profile);
+         profile = (existing != null ? existing : profile);
+      }
+      profile.add(className);
+   }
+
+   @Override
+   public void replayProfiles(List<XModule> resModules)
+   {
+      if (resModules == null)
+         throw new IllegalArgumentException("Null resModules");
+
+      if (replaying == false)
+         return;
+
+      ExecutorService executor;
+      synchronized (this)
+      {
+         executor = replayExecutor;
+      }
+      if (executor == null)
+         return;
+
+      // Collect the host modules that have a stored profile
+      Map<XModule, File> profileFiles = new HashMap<XModule, File>();
+      BundleStoragePlugin storagePlugin = getPlugin(BundleStoragePlugin.class);
+      for (XModule aux : resModules)
+      {
+         AbstractRevision bundleRev = aux.getAttachment(AbstractRevision.class);
+         if (aux.isFragment() || bundleRev instanceof AbstractUserRevision == false)
+            continue;
+
+         AbstractUserRevision userRev = (AbstractUserRevision)bundleRev;
+         String contentKey = userRev.getContentKey();
+         if (contentKey == null || replayedKeys.add(contentKey) == false)
+            continue;
+
+         File profileFile = storagePlugin.getContentCacheFile(contentKey, PROFILE_NAME);
+         if (profileFile.exists())
+            profileFiles.put(aux, profileFile);
+      }
+      if (profileFiles.isEmpty())
+         return;
+
+      // Order the modules so that exporters come before their importers
+      List<XModule> ordered = new ArrayList<XModule>();
+      Set<XModule> visited = new HashSet<XModule>();
+      for (XModule aux : resModules)
+         addInDependencyOrder(aux, profileFiles.keySet(), ordered, visited);
+
+      // A task waits for the tasks of its exporters, which were submitted before it
+      Map<XModule, Future<?>> futures = new HashMap<XModule, Future<?>>();
+      for (XModule aux : ordered)
+      {
+         List<Future<?>> dependencies = new ArrayList<Future<?>>();
+         for (XModule exporter : getExporters(aux))
+         {
+            Future<?> future = futures.get(exporter);
+            if (future != null)
+               dependencies.add(future);
+         }
+         ReplayTask task = new ReplayTask(aux, profileFiles.get(aux), dependencies);
+         try
+         {
+            futures.put(aux, executor.submit(task));
+         }
+         catch (RejectedExecutionException ex)
+         {
+            // the framework has started in the meantime
+            return;
+         }
+      }
+   }
+
+   private void addInDependencyOrder(XModule resModule, Set<XModule> candidates, List<XModule> ordered, Set<XModule> visited)
+   {
+      // A module that is already visited is either ordered or part of a cycle 
+      if (visited.add(resModule) == false)
+         return;
+
+      for (XModule exporter : getExporters(resModule))
+         addInDependencyOrder(exporter, candidates, ordered, visited);
+
+      if (candidates.contains(resModule))
+         ordered.add(resModule);
+   }
+
+   private List<XModule> getExporters(XModule resModule)
+   {
+      List<XModule> result = new ArrayList<XModule>();
+      List<XWire> wires = resModule.getWires();
+      if (wires != null)
+      {
+         for (XWire wire : wires)
+         {
+            XModule exporter = wire.getExporter();
+            if (exporter != null && exporter != resModule)
+               result.add(exporter);
+         }
+      }
+      return result;
+   }
+
+   private void stopRecording()
+   {
+      synchronized (this)
+      {
+         if (recordingDeadline == 0)
+            return;
+
+         recordingDeadline = 0;
+      }
+
+      BundleStoragePlugin storagePlugin = getPlugin(BundleStoragePlugin.class);
+      for (Map.Entry<AbstractRevision, Set<String>> entry : profiles.entrySet())
+      {
+         AbstractUserRevision userRev = (AbstractUserRevision)entry.getKey();
+         String contentKey = userRev.getContentKey();
+         File profileFile = (contentKey != null ? storagePlugin.getContentCacheFile(contentKey, PROFILE_NAME) : null);
+         if (profileFile == null)
+            continue;
+
+         List<String> classNames;
+         Set<String> profile = entry.getValue();
+         synchronized (profile)
+         {
+            classNames = new ArrayList<String>(profile);
+         }
+
+         try
+         {
+            writeProfile(profileFile, classNames);
+            log.debug("Recorded " + classNames.size() + " classes for: " + userRev);
+         }
+         catch (IOException ex)
+         {
+            log.warn("Cannot write class loading profile: " + profileFile, ex);
+         }
+      }
+      profiles.clear();
+   }
+
+   private static void writeProfile(File profileFile, List<String> classNames) throws IOException
+   {
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(profileFile), "UTF-8"));
+      try
+      {
+         for (String className : classNames)
+         {
+            writer.write(className);
+            writer.newLine();
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   private static List<String> readProfile(File profileFile) throws IOException
+   {
+      List<String> result = new ArrayList<String>();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(profileFile), "UTF-8"));
+      try
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            line = line.trim();
+            if (line.length() > 0)
+               result.add(line);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return result;
+   }
+
+   class ReplayTask implements Runnable
+   {
+      private final XModule resModule;
+      private final File profileFile;
+      private final List<Future<?>> dependencies;
+
+      ReplayTask(XModule resModule, File profileFile, List<Future<?>> dependencies)
+      {
+         this.resModule = resModule;
+         this.profileFile = profileFile;
+         this.dependencies = dependencies;
+      }
+
+      @Override
+      public void run()
+      {
+         for (Future<?> future : dependencies)
+         {
+            try
+            {
+               future.get();
+            }
+            catch (InterruptedException ex)
+            {
+               Thread.currentThread().interrupt();
+               return;
+            }
+            catch (ExecutionException ex)
+            {
+               // ignore, the dependency is replayed on a best effort basis
+            }
+         }
+
+         ModuleIdentifier identifier = ModuleManager.getModuleIdentifier(resModule);
+         ModuleManagerPlugin moduleManager = getPlugin(ModuleManagerPlugin.class);
+         Module module = moduleManager.getModule(identifier);
+         if (module == null)
+            return;
+
+         List<String> classNames;
+         try
+         {
+            classNames = readProfile(profileFile);
+         }
+         catch (IOException ex)
+         {
+            log.warn("Cannot read class loading profile: " + profileFile, ex);
+            return;
+         }
+
+         int count = 0;
+         ClassLoader classLoader = module.getClassLoader();
+         for (String className : classNames)
+         {
+            if (Thread.currentThread().isInterrupted())
+               return;
+
+            try
+            {
+               classLoader.loadClass(className);
+               count++;
+            }
+            catch (ClassNotFoundException ex)
+            {
+               log.trace("Cannot replay class: " + className);
+            }
+            catch (LinkageError ex)
+            {
+               log.trace("Cannot replay class: " + className, ex);
+            }
+         }
+         log.debug("Replayed " + count + " of " + classNames.size() + " classes for: " + identifier);
+      }
+   }
+}
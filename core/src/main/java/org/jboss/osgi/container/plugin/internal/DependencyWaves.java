@@ -0,0 +1,107 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XWire;
+
+/**
+ * Groups resolved modules into waves that only depend on modules in earlier waves.
+ * 
+ * A module depends on the exporters it is wired to. Modules in the same wave 
+ * do not depend on each other and can be processed concurrently. The order 
+ * of the given modules is kept within every wave. 
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+final class DependencyWaves
+{
+   // Hide ctor
+   private DependencyWaves()
+   {
+   }
+
+   static List<List<XModule>> getWaves(Collection<XModule> modules)
+   {
+      List<List<XModule>> result = new ArrayList<List<XModule>>();
+      Set<XModule> pending = new LinkedHashSet<XModule>(modules);
+      while (pending.isEmpty() == false)
+      {
+         List<XModule> wave = new ArrayList<XModule>();
+         for (XModule aux : pending)
+         {
+            if (dependsOn(aux, pending) == false)
+               wave.add(aux);
+         }
+
+         if (wave.isEmpty() == false)
+         {
+            result.add(wave);
+            pending.removeAll(wave);
+         }
+         else
+         {
+            // The remaining modules have cyclic dependencies, handle them one at a time
+            for (XModule aux : pending)
+               result.add(Collections.singletonList(aux));
+            pending.clear();
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Get the exporters the given module is wired to, excluding the module itself
+    */
+   static Set<XModule> getExporters(XModule resModule)
+   {
+      Set<XModule> result = new LinkedHashSet<XModule>();
+      if (resModule.isResolved() == false)
+         return result;
+
+      for (XWire wire : resModule.getWires())
+      {
+         XModule exporter = wire.getExporter();
+         if (exporter != null && exporter != resModule)
+            result.add(exporter);
+      }
+      return result;
+   }
+
+   private static boolean dependsOn(XModule resModule, Set<XModule> modules)
+   {
+      for (XModule exporter : getExporters(resModule))
+      {
+         if (modules.contains(exporter))
+            return true;
+      }
+      return false;
+   }
+}
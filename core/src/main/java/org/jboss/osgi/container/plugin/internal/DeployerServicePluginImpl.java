@@ -23,10 +23,15 @@ package org.jboss.osgi.container.plugin.internal;
 
 //$Id$
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.DeployerServicePlugin;
 import org.jboss.osgi.deployment.deployer.DefaultDeploymentRegistryService;
@@ -34,6 +39,7 @@ import org.jboss.osgi.deployment.deployer.DeployerService;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.deployment.deployer.DeploymentRegistryService;
 import org.jboss.osgi.deployment.deployer.SystemDeployerService;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 
@@ -49,12 +55,21 @@ public class DeployerServicePluginImpl extends AbstractPlugin implements Deploye
    final Logger log = Logger.getLogger(DeployerServicePluginImpl.class);
 
    private DeployerService delegate;
+   private int installParallelism = Runtime.getRuntime().availableProcessors();
+   private ExecutorService installExecutor;
 
    public DeployerServicePluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
    }
 
+   @Override
+   public void initPlugin()
+   {
+      FrameworkState frameworkState = getBundleManager().getFrameworkState();
+      installParallelism = frameworkState.getIntProperty(PROP_INSTALL_PARALLELISM, installParallelism);
+   }
+
    @Override
    public void startPlugin()
    {
@@ -69,6 +84,16 @@ public class DeployerServicePluginImpl extends AbstractPlugin implements Deploye
       context.registerService(DeployerService.class.getName(), this, props);
    }
 
+   @Override
+   public synchronized void stopPlugin()
+   {
+      if (installExecutor != null)
+      {
+         installExecutor.shutdownNow();
+         installExecutor = null;
+      }
+   }
+
    public void deploy(Deployment[] bundleDeps) throws BundleException
    {
       delegate.deploy(bundleDeps);
@@ -78,4 +103,29 @@ public class DeployerServicePluginImpl extends AbstractPlugin implements Deploye
    {
       delegate.undeploy(bundleDeps);
    }
+
+   public List<Bundle> installBundles(List<String> locations) throws BundleException
+   {
+      if (locations == null)
+         throw new IllegalArgumentException("Null locations");
+
+      ExecutorService executor = (locations.size() > 1 ? getInstallExecutor() : null);
+      List<AbstractBundle> bundles = getBundleManager().installBundles(locations, executor);
+      List<Bundle> result = new ArrayList<Bundle>(bundles.size());
+      for (AbstractBundle bundleState : bundles)
+         result.add(bundleState.getBundleWrapper());
+      return result;
+   }
+
+   private synchronized ExecutorService getInstallExecutor()
+   {
+      if (installParallelism <= 1)
+         return null;
+
+      if (installExecutor == null)
+      {
+         installExecutor = newDaemonThreadPool("InstallBundles", installParallelism);
+      }
+      return installExecutor;
+   }
 }
\ No newline at end of file
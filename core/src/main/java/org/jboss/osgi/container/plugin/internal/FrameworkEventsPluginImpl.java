@@ -361,6 +361,40 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       }
    }
 
+   @Override
+   public Set<Bundle> getListenerBundles(ClassLoader classLoader)
+   {
+      if (classLoader == null)
+         throw new IllegalArgumentException("Null classLoader");
+
+      Set<Bundle> result = new HashSet<Bundle>();
+      for (Entry<Bundle, List<BundleListener>> entry : bundleListeners.entrySet())
+      {
+         for (BundleListener listener : entry.getValue())
+         {
+            if (listener.getClass().getClassLoader() == classLoader)
+               result.add(entry.getKey());
+         }
+      }
+      for (Entry<Bundle, List<FrameworkListener>> entry : frameworkListeners.entrySet())
+      {
+         for (FrameworkListener listener : entry.getValue())
+         {
+            if (listener.getClass().getClassLoader() == classLoader)
+               result.add(entry.getKey());
+         }
+      }
+      for (Entry<Bundle, List<ServiceListenerRegistration>> entry : serviceListeners.entrySet())
+      {
+         for (ServiceListenerRegistration registration : entry.getValue())
+         {
+            if (registration.listener.getClass().getClassLoader() == classLoader)
+               result.add(entry.getKey());
+         }
+      }
+      return result;
+   }
+
    private List<ListenerHook> getServiceListenerHooks()
    {
       BundleContext context = getBundleManager().getSystemContext();
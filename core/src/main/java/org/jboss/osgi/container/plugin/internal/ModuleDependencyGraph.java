@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.osgi.container.bundle.AbstractRevision;
+import org.jboss.osgi.container.bundle.FragmentRevision;
+import org.jboss.osgi.container.bundle.HostRevision;
+import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XWire;
+
+/**
+ * The dependencies between resolved modules.
+ * 
+ * An edge leads from a module to the modules that depend on it, i.e. from an exporter to its importers,
+ * from a required bundle to its requiring bundles and between a fragment and its hosts. The graph is
+ * updated when modules get resolved or removed from the resolver, so that the modules that are affected
+ * by a refresh can be found without looking at the wires of unrelated modules.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+class ModuleDependencyGraph
+{
+   // Maps a module to the modules that depend on it
+   private final Map<XModule, Set<XModule>> dependents = new HashMap<XModule, Set<XModule>>();
+   // Maps a module to the modules it depends on
+   private final Map<XModule, Set<XModule>> dependencies = new HashMap<XModule, Set<XModule>>();
+
+   /**
+    * Add the wires of a resolved module. Fragments must be attached to their hosts.
+    */
+   synchronized void addModule(XModule resModule)
+   {
+      for (XWire wire : resModule.getWires())
+      {
+         XModule exporter = wire.getExporter();
+         if (exporter != null && exporter != resModule)
+            addEdge(exporter, resModule);
+      }
+
+      // A fragment and its hosts must be refreshed together
+      if (resModule.isFragment())
+      {
+         FragmentRevision fragRev = (FragmentRevision)resModule.getAttachment(AbstractRevision.class);
+         for (HostRevision hostRev : fragRev.getAttachedHosts())
+         {
+            XModule hostModule = hostRev.getResolverModule();
+            addEdge(resModule, hostModule);
+            addEdge(hostModule, resModule);
+         }
+      }
+   }
+
+   /**
+    * Remove a module together with all of its edges.
+    */
+   synchronized void removeModule(XModule resModule)
+   {
+      Set<XModule> exporters = dependencies.remove(resModule);
+      if (exporters != null)
+      {
+         for (XModule aux : exporters)
+            removeEdge(dependents, aux, resModule);
+      }
+      Set<XModule> importers = dependents.remove(resModule);
+      if (importers != null)
+      {
+         for (XModule aux : importers)
+            removeEdge(dependencies, aux, resModule);
+      }
+   }
+
+   /**
+    * Get the transitive closure of the modules that depend on the given modules. 
+    * The result contains the given modules.
+    */
+   synchronized Set<XModule> getDependents(Collection<XModule> resModules)
+   {
+      Set<XModule> result = new LinkedHashSet<XModule>(resModules);
+      LinkedList<XModule> queue = new LinkedList<XModule>(resModules);
+      while (queue.isEmpty() == false)
+      {
+         Set<XModule> aux = dependents.get(queue.removeFirst());
+         if (aux == null)
+            continue;
+
+         for (XModule dependent : aux)
+         {
+            if (result.add(dependent))
+               queue.addLast(dependent);
+         }
+      }
+      return result;
+   }
+
+   private void addEdge(XModule module, XModule dependent)
+   {
+      Set<XModule> aux = dependents.get(module);
+      if (aux == null)
+      {
+         aux = new LinkedHashSet<XModule>();
+         dependents.put(module, aux);
+      }
+      aux.add(dependent);
+
+      aux = dependencies.get(dependent);
+      if (aux == null)
+      {
+         aux = new LinkedHashSet<XModule>();
+         dependencies.put(dependent, aux);
+      }
+      aux.add(module);
+   }
+
+   private static void removeEdge(Map<XModule, Set<XModule>> edges, XModule from, XModule to)
+   {
+      Set<XModule> aux = edges.get(from);
+      if (aux != null)
+      {
+         aux.remove(to);
+         if (aux.isEmpty())
+            edges.remove(from);
+      }
+   }
+}
@@ -22,18 +22,17 @@
 package org.jboss.osgi.container.plugin.internal;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.jboss.logging.Logger;
@@ -42,6 +41,7 @@ import org.jboss.osgi.container.bundle.AbstractUserBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.FragmentBundle;
 import org.jboss.osgi.container.bundle.FragmentRevision;
+import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.bundle.HostBundle;
 import org.jboss.osgi.container.bundle.HostRevision;
 import org.jboss.osgi.container.loading.FragmentLocalLoader;
@@ -56,8 +56,6 @@ import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XPackageCapability;
 import org.jboss.osgi.resolver.XRequireBundleRequirement;
 import org.jboss.osgi.resolver.XRequirement;
-import org.jboss.osgi.resolver.XVersionRange;
-import org.jboss.osgi.resolver.XWire;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkEvent;
@@ -66,7 +64,6 @@ import org.osgi.framework.Version;
 import org.osgi.service.packageadmin.ExportedPackage;
 import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.service.packageadmin.RequiredBundle;
-import org.osgi.service.startlevel.StartLevel;
 
 /**
  * A plugin manages the Framework's system packages.
@@ -81,14 +78,29 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    final Logger log = Logger.getLogger(PackageAdminPluginImpl.class);
 
    private Executor executor;
+   // The number of threads that stop and start bundles on refresh
+   private int lifecycleParallelism = Runtime.getRuntime().availableProcessors();
+   // The time in milliseconds a bundle is given to stop or start on refresh
+   private long lifecycleTimeout = 60000;
+   private ExecutorService lifecycleExecutor;
    private ResolverPlugin resolverPlugin;
    private ServiceRegistration registration;
+   // Maps a package name to the exported packages of all modules known to the resolver, modified under its own lock
+   private final Map<String, ExportedPackageImpl[]> exportIndex = new ConcurrentHashMap<String, ExportedPackageImpl[]>();
 
    public PackageAdminPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
    }
 
+   @Override
+   public void initPlugin()
+   {
+      FrameworkState frameworkState = getBundleManager().getFrameworkState();
+      lifecycleParallelism = frameworkState.getIntProperty(PROP_REFRESH_PARALLELISM, lifecycleParallelism);
+      lifecycleTimeout = frameworkState.getLongProperty(PROP_REFRESH_TIMEOUT, lifecycleTimeout);
+   }
+
    @Override
    public void startPlugin()
    {
@@ -98,8 +110,14 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    }
 
    @Override
-   public void stopPlugin()
+   public synchronized void stopPlugin()
    {
+      if (lifecycleExecutor != null)
+      {
+         lifecycleExecutor.shutdownNow();
+         lifecycleExecutor = null;
+      }
+
       if (registration != null)
       {
          registration.unregister();
@@ -107,6 +125,76 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       }
    }
 
+   @Override
+   public void moduleAdded(XModule resModule)
+   {
+      synchronized (exportIndex)
+      {
+         for (XPackageCapability cap : resModule.getPackageCapabilities())
+         {
+            ExportedPackageImpl[] exports = exportIndex.get(cap.getName());
+            if (exports == null)
+            {
+               exports = new ExportedPackageImpl[] { new ExportedPackageImpl(cap) };
+            }
+            else
+            {
+               if (findExportedPackage(exports, cap) != null)
+                  continue;
+
+               ExportedPackageImpl[] aux = new ExportedPackageImpl[exports.length + 1];
+               System.arraycopy(exports, 0, aux, 0, exports.length);
+               aux[exports.length] = new ExportedPackageImpl(cap);
+               exports = aux;
+            }
+            exportIndex.put(cap.getName(), exports);
+         }
+      }
+   }
+
+   @Override
+   public void moduleRemoved(XModule resModule)
+   {
+      synchronized (exportIndex)
+      {
+         for (XPackageCapability cap : resModule.getPackageCapabilities())
+         {
+            ExportedPackageImpl[] exports = exportIndex.get(cap.getName());
+            if (exports == null)
+               continue;
+
+            List<ExportedPackageImpl> aux = new ArrayList<ExportedPackageImpl>(exports.length);
+            for (ExportedPackageImpl exp : exports)
+            {
+               if (exp.getCapability() != cap)
+                  aux.add(exp);
+            }
+            if (aux.isEmpty())
+               exportIndex.remove(cap.getName());
+            else if (aux.size() < exports.length)
+               exportIndex.put(cap.getName(), aux.toArray(new ExportedPackageImpl[aux.size()]));
+         }
+      }
+   }
+
+   private static ExportedPackageImpl findExportedPackage(ExportedPackageImpl[] exports, XPackageCapability cap)
+   {
+      for (ExportedPackageImpl exp : exports)
+      {
+         if (exp.getCapability() == cap)
+            return exp;
+      }
+      return null;
+   }
+
+   // Get the cached exported package for the given capability
+   private ExportedPackage getCachedExportedPackage(XPackageCapability cap)
+   {
+      ExportedPackageImpl[] exports = exportIndex.get(cap.getName());
+      ExportedPackageImpl exp = (exports != null ? findExportedPackage(exports, cap) : null);
+      return exp != null ? exp : new ExportedPackageImpl(cap);
+   }
+
    @Override
    public ExportedPackage[] getExportedPackages(Bundle bundle)
    {
@@ -121,10 +209,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
             continue;
 
          for (XPackageCapability cap : resModule.getPackageCapabilities())
-         {
-            ExportedPackage exp = new ExportedPackageImpl(cap);
-            result.add(exp);
-         }
+            result.add(getCachedExportedPackage(cap));
       }
 
       if (result.size() == 0)
@@ -136,13 +221,14 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    private ExportedPackage[] getAllExportedPackages()
    {
       List<ExportedPackage> result = new ArrayList<ExportedPackage>();
-      for (AbstractBundle ab : getBundleManager().getBundles())
+      for (ExportedPackageImpl[] exports : exportIndex.values())
       {
-         ExportedPackage[] pkgs = getExportedPackages(ab);
-         if (pkgs != null)
-            result.addAll(Arrays.asList(pkgs));
+         for (ExportedPackageImpl exp : exports)
+         {
+            if (exp.getCapability().getModule().isResolved())
+               result.add(exp);
+         }
       }
-
       return result.toArray(new ExportedPackage[result.size()]);
    }
 
@@ -152,20 +238,13 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       if (name == null)
          throw new IllegalArgumentException("Null name");
 
-      Set<ExportedPackage> result = new HashSet<ExportedPackage>();
-      ResolverPlugin plugin = getBundleManager().getPlugin(ResolverPlugin.class);
-      for (XModule mod : plugin.getResolver().getModules())
-      {
-         for (XCapability cap : mod.getCapabilities())
-         {
-            if (cap instanceof XPackageCapability)
-            {
-               if (name.equals(cap.getName()))
-                  result.add(new ExportedPackageImpl((XPackageCapability)cap));
-            }
-         }
-      }
-      return result.toArray(new ExportedPackage[result.size()]);
+      ExportedPackageImpl[] exports = exportIndex.get(name);
+      if (exports == null)
+         return new ExportedPackage[0];
+
+      ExportedPackage[] result = new ExportedPackage[exports.length];
+      System.arraycopy(exports, 0, result, 0, exports.length);
+      return result;
    }
 
    @Override
@@ -231,31 +310,31 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
                   refreshBundles.add(aux);
             }
 
-            // Compute all depending bundles that need to be stopped and unresolved.
-            for (AbstractBundle aux : getBundleManager().getBundles())
+            // Compute the transitive closure of the depending bundles that need to be stopped and unresolved.
+            for (XModule resModule : resolverPlugin.getDependentModules(refreshMap.keySet()))
             {
-               if (aux instanceof HostBundle == false)
+               if (refreshMap.containsKey(resModule))
                   continue;
 
-               HostBundle hostBundle = (HostBundle)aux;
-
-               XModule resModule = hostBundle.getResolverModule();
-               if (resModule.isResolved() == false)
+               Bundle bundle = resModule.getAttachment(Bundle.class);
+               AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
+               if (bundleState instanceof AbstractUserBundle == false)
                   continue;
 
-               for (XWire wire : resModule.getWires())
+               AbstractUserBundle userBundle = (AbstractUserBundle)bundleState;
+               if (userBundle.getState() == Bundle.UNINSTALLED)
+               {
+                  uninstallBundles.add(userBundle);
+               }
+               else if (userBundle.isResolved() == true)
                {
-                  if (refreshMap.containsKey(wire.getExporter()))
+                  // Bundles can be either ACTIVE or RESOLVED
+                  int state = userBundle.getState();
+                  if (userBundle instanceof HostBundle && (state == Bundle.ACTIVE || state == Bundle.STARTING))
                   {
-                     // Bundles can be either ACTIVE or RESOLVED
-                     int state = hostBundle.getState();
-                     if (state == Bundle.ACTIVE || state == Bundle.STARTING)
-                     {
-                        stopBundles.add(hostBundle);
-                     }
-                     refreshBundles.add(hostBundle);
-                     break;
+                     stopBundles.add((HostBundle)userBundle);
                   }
+                  refreshBundles.add(userBundle);
                }
             }
 
@@ -272,24 +351,21 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
                }
             }
 
-            List<HostBundle> stopList = new ArrayList<HostBundle>(stopBundles);
             List<AbstractUserBundle> refreshList = new ArrayList<AbstractUserBundle>(refreshBundles);
 
+            // Group the bundles by start level and wires while they are still resolved
             StartLevelPlugin startLevel = getOptionalPlugin(StartLevelPlugin.class);
-            BundleStartLevelComparator startLevelComparator = new BundleStartLevelComparator(startLevel);
-            Collections.sort(stopList, startLevelComparator);
+            List<List<HostBundle>> startWaves = ParallelBundleLifecycle.getStartWaves(stopBundles, startLevel != null);
+            ParallelBundleLifecycle lifecycle = new ParallelBundleLifecycle(eventsPlugin, getLifecycleExecutor(), lifecycleTimeout);
+            lifecycle.stop(startWaves);
 
-            for (ListIterator<HostBundle> it = stopList.listIterator(stopList.size()); it.hasPrevious();)
+            // Bundles whose stop did not complete within the timeout are neither removed nor refreshed
+            Set<HostBundle> incomplete = lifecycle.getIncompleteBundles();
+            if (incomplete.isEmpty() == false)
             {
-               HostBundle hostBundle = it.previous();
-               try
-               {
-                  hostBundle.stop(Bundle.STOP_TRANSIENT);
-               }
-               catch (Throwable th)
-               {
-                  eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
-               }
+               log.error("Cannot refresh bundles that are still stopping: " + incomplete);
+               uninstallBundles.removeAll(incomplete);
+               refreshList.removeAll(incomplete);
             }
 
             for (AbstractUserBundle userBundle : uninstallBundles)
@@ -309,17 +385,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
                }
             }
 
-            for (HostBundle hostBundle : stopList)
-            {
-               try
-               {
-                  hostBundle.start(Bundle.START_TRANSIENT);
-               }
-               catch (Throwable th)
-               {
-                  eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
-               }
-            }
+            lifecycle.start(startWaves);
 
             eventsPlugin.fireFrameworkEvent(getBundleManager().getSystemBundle(), FrameworkEvent.PACKAGES_REFRESHED, null);
          }
@@ -328,6 +394,18 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       getExecutor().execute(runner);
    }
 
+   private synchronized ExecutorService getLifecycleExecutor()
+   {
+      if (lifecycleParallelism <= 1)
+         return null;
+
+      if (lifecycleExecutor == null)
+      {
+         lifecycleExecutor = newDaemonThreadPool("RefreshPackages", lifecycleParallelism);
+      }
+      return lifecycleExecutor;
+   }
+
    private Executor getExecutor()
    {
       if (executor == null)
@@ -365,43 +443,35 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    @Override
    public RequiredBundle[] getRequiredBundles(String symbolicName)
    {
-      Map<AbstractBundle, Collection<AbstractBundle>> matchingBundles = new HashMap<AbstractBundle, Collection<AbstractBundle>>();
-
-      // Make a defensive copy to ensure thread safety as we are running through the list twice
-      List<AbstractBundle> bundles = new ArrayList<AbstractBundle>(getBundleManager().getBundles());
-      for (AbstractBundle aux : bundles)
-      {
-         if (aux.getSymbolicName().equals(symbolicName))
-            matchingBundles.put(aux, new ArrayList<AbstractBundle>());
-      }
-
-      if (matchingBundles.size() == 0)
+      if (symbolicName == null)
          return null;
 
-      for (AbstractBundle aux : bundles)
+      Map<AbstractBundle, Collection<AbstractBundle>> matchingBundles = new LinkedHashMap<AbstractBundle, Collection<AbstractBundle>>();
+      for (AbstractBundle aux : getBundleManager().getBundles(symbolicName, null))
       {
-         XModule resModule = aux.getResolverModule();
-         for (XRequireBundleRequirement req : resModule.getBundleRequirements())
+         // Follow the wires of the capabilities back to the bundles that require them
+         Collection<AbstractBundle> requiring = new LinkedHashSet<AbstractBundle>();
+         for (XCapability cap : aux.getResolverModule().getCapabilities())
          {
-            if (req.getName().equals(symbolicName))
+            Set<XRequirement> wiredReqs = cap.getWiredRequirements();
+            if (wiredReqs == null)
+               continue;
+
+            for (XRequirement req : wiredReqs)
             {
-               for (XWire wire : req.getModule().getWires())
+               if (req instanceof XRequireBundleRequirement)
                {
-                  if (wire.getRequirement().equals(req))
-                  {
-                     XCapability wiredCap = wire.getCapability();
-                     XModule module = wiredCap.getModule();
-                     Bundle bundle = module.getAttachment(Bundle.class);
-                     AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
-                     Collection<AbstractBundle> requiring = matchingBundles.get(bundleState);
-                     if (requiring != null)
-                        requiring.add(aux);
-                  }
+                  Bundle bundle = req.getModule().getAttachment(Bundle.class);
+                  requiring.add(AbstractBundle.assertBundleState(bundle));
                }
             }
          }
+         matchingBundles.put(aux, requiring);
       }
 
+      if (matchingBundles.size() == 0)
+         return null;
+
       List<RequiredBundle> result = new ArrayList<RequiredBundle>(matchingBundles.size());
       for (Map.Entry<AbstractBundle, Collection<AbstractBundle>> entry : matchingBundles.entrySet())
          result.add(new RequiredBundleImpl(entry.getKey(), entry.getValue()));
@@ -412,37 +482,18 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    @Override
    public Bundle[] getBundles(String symbolicName, String versionRange)
    {
-      Set<Bundle> bundles = new TreeSet<Bundle>(new Comparator<Bundle>()
-      {
-         // Makes sure that the bundles are sorted correctly in the returned array
-         // Matching bundles with the highest version should come first.
-         @Override
-         public int compare(Bundle b1, Bundle b2)
-         {
-            // Reverse the version comparison order
-            return b2.getVersion().compareTo(b1.getVersion());
-         }
-      });
-
-      XVersionRange range = null;
-      if (versionRange != null)
-         range = XVersionRange.parse(versionRange);
-
-      for (AbstractBundle ab : getBundleManager().getBundles())
-      {
-         Bundle b = AbstractBundle.assertBundleState(ab).getBundleWrapper();
-         if (b.getSymbolicName().equals(symbolicName))
-         {
-            if (range == null)
-               bundles.add(b);
-            else if (range.isInRange(b.getVersion()))
-               bundles.add(b);
-         }
-      }
+      if (symbolicName == null)
+         return null;
 
+      // Matching bundles with the highest version come first
+      List<AbstractBundle> bundles = getBundleManager().getBundles(symbolicName, versionRange);
       if (bundles.size() == 0)
          return null;
-      return bundles.toArray(new Bundle[bundles.size()]);
+
+      Bundle[] result = new Bundle[bundles.size()];
+      for (int i = 0; i < result.length; i++)
+         result[i] = bundles.get(i).getBundleWrapper();
+      return result;
    }
 
    @Override
@@ -533,6 +584,11 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
          capability = cap;
       }
 
+      XPackageCapability getCapability()
+      {
+         return capability;
+      }
+
       @Override
       public String getName()
       {
@@ -636,25 +692,4 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
          return false;
       }
    }
-
-   private static class BundleStartLevelComparator implements Comparator<HostBundle>
-   {
-      private final StartLevel startLevel;
-
-      private BundleStartLevelComparator(StartLevel startLevelService)
-      {
-         this.startLevel = startLevelService;
-      }
-
-      @Override
-      public int compare(HostBundle o1, HostBundle o2)
-      {
-         if (startLevel == null)
-            return 0;
-
-         int sl1 = o1.getStartLevel();
-         int sl2 = o2.getStartLevel();
-         return sl1 < sl2 ? -1 : (sl1 == sl2 ? 0 : 1);
-      }
-   }
 }
\ No newline at end of file
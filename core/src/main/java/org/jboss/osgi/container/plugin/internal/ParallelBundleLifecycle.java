@@ -0,0 +1,398 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.HostBundle;
+import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.resolver.XModule;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkEvent;
+
+/**
+ * Stops and starts a set of bundles in waves.
+ * 
+ * The bundles are ordered by start level and, within a start level, by their wires, so that an exporter 
+ * starts in an earlier wave than its importers. Bundles in the same wave are started concurrently and 
+ * stopped in the reverse order. Failures and bundles that do not complete within the timeout are 
+ * reported once as {@link FrameworkEvent#ERROR}. The task of a bundle that timed out keeps running; 
+ * such a bundle and the bundles that depend on it are not started. The time every bundle took and 
+ * the failures are recorded.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+class ParallelBundleLifecycle
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(ParallelBundleLifecycle.class);
+
+   private final FrameworkEventsPlugin eventsPlugin;
+   private final ExecutorService executor;
+   private final long timeout;
+   private final Map<HostBundle, Long> timings = new ConcurrentHashMap<HostBundle, Long>();
+   private final Map<HostBundle, Throwable> failures = new ConcurrentHashMap<HostBundle, Throwable>();
+   private final Map<HostBundle, Future<?>> incomplete = new ConcurrentHashMap<HostBundle, Future<?>>();
+   private final Map<HostBundle, Set<HostBundle>> dependencies = new HashMap<HostBundle, Set<HostBundle>>();
+   private final Set<HostBundle> skipped = new HashSet<HostBundle>();
+
+   /**
+    * @param eventsPlugin the plugin that reports errors or null to only record the failures
+    * @param executor the executor for concurrent bundles or null to run in the calling thread
+    * @param timeout the time in milliseconds a bundle is given to start or stop
+    */
+   ParallelBundleLifecycle(FrameworkEventsPlugin eventsPlugin, ExecutorService executor, long timeout)
+   {
+      this.eventsPlugin = eventsPlugin;
+      this.executor = executor;
+      this.timeout = timeout;
+   }
+
+   /**
+    * Group the bundles into the waves in which they are started.
+    * 
+    * The waves must be computed while the bundles are still resolved.
+    * 
+    * @param bundles the bundles to group
+    * @param useStartLevels true if the start level of the bundles is significant
+    */
+   static List<List<HostBundle>> getStartWaves(Collection<HostBundle> bundles, boolean useStartLevels)
+   {
+      Map<Integer, List<HostBundle>> levels = new TreeMap<Integer, List<HostBundle>>();
+      for (HostBundle aux : bundles)
+      {
+         Integer level = (useStartLevels ? aux.getStartLevel() : 0);
+         List<HostBundle> list = levels.get(level);
+         if (list == null)
+         {
+            list = new ArrayList<HostBundle>();
+            levels.put(level, list);
+         }
+         list.add(aux);
+      }
+
+      List<List<HostBundle>> result = new ArrayList<List<HostBundle>>();
+      for (List<HostBundle> level : levels.values())
+         result.addAll(getDependencyWaves(level));
+
+      return result;
+   }
+
+   // Group the bundles into waves that only depend on bundles in earlier waves
+   private static List<List<HostBundle>> getDependencyWaves(List<HostBundle> bundles)
+   {
+      Map<XModule, HostBundle> bundleMap = new LinkedHashMap<XModule, HostBundle>();
+      for (HostBundle aux : bundles)
+         bundleMap.put(aux.getResolverModule(), aux);
+
+      List<List<HostBundle>> result = new ArrayList<List<HostBundle>>();
+      for (List<XModule> moduleWave : DependencyWaves.getWaves(bundleMap.keySet()))
+      {
+         List<HostBundle> wave = new ArrayList<HostBundle>();
+         for (XModule aux : moduleWave)
+            wave.add(bundleMap.get(aux));
+         result.add(wave);
+      }
+      return result;
+   }
+
+   /**
+    * Stop the bundles transiently, the last start wave first.
+    */
+   void stop(List<List<HostBundle>> startWaves)
+   {
+      recordDependencies(startWaves);
+      BundleTask task = new BundleTask()
+      {
+         @Override
+         public void run(HostBundle hostBundle) throws BundleException
+         {
+            hostBundle.stop(Bundle.STOP_TRANSIENT);
+         }
+      };
+      for (ListIterator<List<HostBundle>> it = startWaves.listIterator(startWaves.size()); it.hasPrevious();)
+         runWave(it.previous(), task);
+   }
+
+   /**
+    * Start the bundles transiently, the first start wave first.
+    */
+   void start(List<List<HostBundle>> startWaves)
+   {
+      start(startWaves, Bundle.START_TRANSIENT);
+   }
+
+   /**
+    * Start the bundles with the given options, the first start wave first.
+    * 
+    * A bundle is not started while its own task or the task of one of its exporters did not complete.
+    */
+   void start(List<List<HostBundle>> startWaves, int options)
+   {
+      start(startWaves, options, false);
+   }
+
+   /**
+    * Start the bundles with the given options, the first start wave first.
+    * 
+    * @param failFast true if no further wave is started after a bundle in a wave failed
+    */
+   void start(List<List<HostBundle>> startWaves, final int options, boolean failFast)
+   {
+      recordDependencies(startWaves);
+      BundleTask task = new BundleTask()
+      {
+         @Override
+         public void run(HostBundle hostBundle) throws BundleException
+         {
+            hostBundle.start(options);
+         }
+      };
+      for (List<HostBundle> wave : startWaves)
+      {
+         if (failFast == true && failures.isEmpty() == false)
+            break;
+
+         runWave(getStartableBundles(wave), task);
+      }
+   }
+
+   /**
+    * Get the time in milliseconds the bundles took to stop or start.
+    */
+   Map<HostBundle, Long> getTimings()
+   {
+      return Collections.unmodifiableMap(timings);
+   }
+
+   /**
+    * Get the failures of the bundles that did not stop or start.
+    */
+   Map<HostBundle, Throwable> getFailures()
+   {
+      return Collections.unmodifiableMap(failures);
+   }
+
+   /**
+    * Get the bundles whose task timed out and is still running.
+    */
+   Set<HostBundle> getIncompleteBundles()
+   {
+      Set<HostBundle> result = new HashSet<HostBundle>();
+      for (Iterator<Entry<HostBundle, Future<?>>> it = incomplete.entrySet().iterator(); it.hasNext();)
+      {
+         Entry<HostBundle, Future<?>> entry = it.next();
+         if (entry.getValue().isDone())
+            it.remove();
+         else
+            result.add(entry.getKey());
+      }
+      return result;
+   }
+
+   // Record the exporters of the bundles while they are still resolved
+   private void recordDependencies(List<List<HostBundle>> startWaves)
+   {
+      for (List<HostBundle> wave : startWaves)
+      {
+         for (HostBundle hostBundle : wave)
+         {
+            if (dependencies.containsKey(hostBundle))
+               continue;
+
+            Set<HostBundle> exporters = new HashSet<HostBundle>();
+            for (XModule exporter : DependencyWaves.getExporters(hostBundle.getResolverModule()))
+            {
+               Bundle bundle = exporter.getAttachment(Bundle.class);
+               AbstractBundle bundleState = (bundle != null ? AbstractBundle.assertBundleState(bundle) : null);
+               if (bundleState instanceof HostBundle)
+                  exporters.add((HostBundle)bundleState);
+            }
+            dependencies.put(hostBundle, exporters);
+         }
+      }
+   }
+
+   // Skip the bundles that are still busy and the bundles that depend on a bundle that did not complete
+   private List<HostBundle> getStartableBundles(List<HostBundle> wave)
+   {
+      Set<HostBundle> notStarted = getIncompleteBundles();
+      notStarted.addAll(skipped);
+
+      List<HostBundle> result = new ArrayList<HostBundle>();
+      for (HostBundle hostBundle : wave)
+      {
+         // The timeout of the bundle was reported already
+         if (notStarted.contains(hostBundle))
+         {
+            skipped.add(hostBundle);
+            continue;
+         }
+
+         HostBundle blocker = null;
+         for (HostBundle exporter : dependencies.get(hostBundle))
+         {
+            if (notStarted.contains(exporter))
+            {
+               blocker = exporter;
+               break;
+            }
+         }
+         if (blocker != null)
+         {
+            skipped.add(hostBundle);
+            String message = "Cannot start " + hostBundle + ", " + blocker + " did not complete";
+            log.error(message);
+            BundleException failure = new BundleException(message);
+            failures.put(hostBundle, failure);
+            if (eventsPlugin != null)
+               eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, failure);
+            continue;
+         }
+         result.add(hostBundle);
+      }
+      return result;
+   }
+
+   private void runWave(List<HostBundle> wave, BundleTask task)
+   {
+      if (executor == null)
+      {
+         for (HostBundle aux : wave)
+            new BundleRun(task, aux).run();
+         return;
+      }
+
+      List<BundleRun> runs = new ArrayList<BundleRun>();
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (HostBundle aux : wave)
+      {
+         BundleRun run = new BundleRun(task, aux);
+         runs.add(run);
+         futures.add(executor.submit(run));
+      }
+
+      // The timeout applies to every bundle from the start of the wave
+      long deadline = System.currentTimeMillis() + timeout;
+      for (int i = 0; i < futures.size(); i++)
+      {
+         HostBundle hostBundle = wave.get(i);
+         try
+         {
+            long wait = Math.max(deadline - System.currentTimeMillis(), 0);
+            futures.get(i).get(wait, TimeUnit.MILLISECONDS);
+         }
+         catch (TimeoutException ex)
+         {
+            // The task keeps running, the bundle is not touched until it completes
+            incomplete.put(hostBundle, futures.get(i));
+            String message = "Timeout after " + timeout + "ms waiting for: " + hostBundle;
+            log.error(message);
+            runs.get(i).reportFailure(new BundleException(message, ex));
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (ExecutionException ex)
+         {
+            runs.get(i).reportFailure(ex.getCause());
+         }
+      }
+   }
+
+   interface BundleTask
+   {
+      void run(HostBundle hostBundle) throws BundleException;
+   }
+
+   // Runs the task of a single bundle and reports its failure at most once
+   class BundleRun implements Runnable
+   {
+      private final BundleTask task;
+      private final HostBundle hostBundle;
+      private final AtomicBoolean reported = new AtomicBoolean();
+
+      BundleRun(BundleTask task, HostBundle hostBundle)
+      {
+         this.task = task;
+         this.hostBundle = hostBundle;
+      }
+
+      @Override
+      public void run()
+      {
+         long start = System.nanoTime();
+         try
+         {
+            task.run(hostBundle);
+         }
+         catch (Throwable th)
+         {
+            reportFailure(th);
+         }
+         finally
+         {
+            timings.put(hostBundle, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+         }
+      }
+
+      void reportFailure(Throwable th)
+      {
+         if (reported.compareAndSet(false, true))
+         {
+            failures.put(hostBundle, th);
+            if (eventsPlugin != null)
+               eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
+         }
+         else
+         {
+            // A task that fails after its timeout was reported already
+            log.warn("Late failure of: " + hostBundle, th);
+         }
+      }
+   }
+}
@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.container.plugin.ResolverMetricsMBean;
+
+/**
+ * Collects the metrics of the resolver runs.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+class ResolverMetrics implements ResolverMetricsMBean
+{
+   // The maximum number of recent failures that are kept
+   static final int MAX_RECENT_FAILURES = 20;
+
+   private final AtomicInteger candidateModules = new AtomicInteger();
+   private final LinkedList<String> recentFailures = new LinkedList<String>();
+   private long resolverRuns;
+   private long slowResolverRuns;
+   private long modulesRequested;
+   private long modulesResolved;
+   private long wiresCreated;
+   private long resolveFailures;
+   private long resolveTimeNanos;
+   private long applyTimeNanos;
+   private long maxRunTimeNanos;
+   private long lastRunTimeNanos;
+
+   void moduleAdded()
+   {
+      candidateModules.incrementAndGet();
+   }
+
+   void moduleRemoved()
+   {
+      candidateModules.decrementAndGet();
+   }
+
+   /**
+    * Record a completed resolver run.
+    */
+   synchronized void runCompleted(RunStatistics stats, boolean slow)
+   {
+      resolverRuns++;
+      if (slow == true)
+         slowResolverRuns++;
+
+      modulesRequested += stats.requested;
+      modulesResolved += stats.resolved;
+      wiresCreated += stats.wires;
+      resolveFailures += stats.failures.size();
+      resolveTimeNanos += stats.resolveNanos;
+      applyTimeNanos += stats.applyNanos;
+
+      long runNanos = stats.getRunNanos();
+      maxRunTimeNanos = Math.max(maxRunTimeNanos, runNanos);
+      lastRunTimeNanos = runNanos;
+
+      for (String failure : stats.failures)
+      {
+         recentFailures.addLast(failure);
+         if (recentFailures.size() > MAX_RECENT_FAILURES)
+            recentFailures.removeFirst();
+      }
+   }
+
+   @Override
+   public synchronized long getResolverRuns()
+   {
+      return resolverRuns;
+   }
+
+   @Override
+   public synchronized long getSlowResolverRuns()
+   {
+      return slowResolverRuns;
+   }
+
+   @Override
+   public synchronized long getModulesRequested()
+   {
+      return modulesRequested;
+   }
+
+   @Override
+   public synchronized long getModulesResolved()
+   {
+      return modulesResolved;
+   }
+
+   @Override
+   public synchronized long getWiresCreated()
+   {
+      return wiresCreated;
+   }
+
+   @Override
+   public synchronized long getResolveFailures()
+   {
+      return resolveFailures;
+   }
+
+   @Override
+   public int getCandidateModules()
+   {
+      return candidateModules.get();
+   }
+
+   @Override
+   public synchronized long getResolveTimeNanos()
+   {
+      return resolveTimeNanos;
+   }
+
+   @Override
+   public synchronized long getApplyTimeNanos()
+   {
+      return applyTimeNanos;
+   }
+
+   @Override
+   public synchronized long getMaxRunTimeNanos()
+   {
+      return maxRunTimeNanos;
+   }
+
+   @Override
+   public synchronized long getLastRunTimeNanos()
+   {
+      return lastRunTimeNanos;
+   }
+
+   @Override
+   public synchronized String[] getRecentFailures()
+   {
+      return recentFailures.toArray(new String[recentFailures.size()]);
+   }
+
+   @Override
+   public synchronized void reset()
+   {
+      // The candidate modules reflect the current resolver state and are not reset
+      recentFailures.clear();
+      resolverRuns = 0;
+      slowResolverRuns = 0;
+      modulesRequested = 0;
+      modulesResolved = 0;
+      wiresCreated = 0;
+      resolveFailures = 0;
+      resolveTimeNanos = 0;
+      applyTimeNanos = 0;
+      maxRunTimeNanos = 0;
+      lastRunTimeNanos = 0;
+   }
+
+   /**
+    * The statistics of a single resolver run.
+    */
+   static class RunStatistics
+   {
+      int requested;
+      int resolved;
+      int wires;
+      int candidates;
+      long resolveNanos;
+      long applyNanos;
+      List<String> failures = new LinkedList<String>();
+
+      long getRunNanos()
+      {
+         return resolveNanos + applyNanos;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "[requested=" + requested + ",resolved=" + resolved + ",wires=" + wires + ",candidates=" + candidates + ",failures="
+               + failures.size() + ",resolve=" + (resolveNanos / 1000000) + "ms,apply=" + (applyNanos / 1000000) + "ms]";
+      }
+   }
+}
@@ -21,12 +21,25 @@
  */
 package org.jboss.osgi.container.plugin.internal;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.jboss.logging.Logger;
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
@@ -35,11 +48,16 @@ import org.jboss.osgi.container.bundle.AbstractRevision;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.AbstractUserBundle;
 import org.jboss.osgi.container.bundle.FragmentRevision;
+import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.bundle.ModuleManager;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
+import org.jboss.osgi.container.plugin.ClassLoadingProfilePlugin;
 import org.jboss.osgi.container.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.container.plugin.NativeCodePlugin;
+import org.jboss.osgi.container.plugin.PackageAdminPlugin;
+import org.jboss.osgi.container.plugin.ResolverMetricsMBean;
 import org.jboss.osgi.container.plugin.ResolverPlugin;
+import org.jboss.osgi.container.plugin.internal.ResolverMetrics.RunStatistics;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.NativeLibraryMetaData;
 import org.jboss.osgi.resolver.XModule;
@@ -70,6 +88,30 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
    private final XResolver resolver;
    private final NativeCodePlugin nativeCodePlugin;
    private final ModuleManagerPlugin moduleManager;
+   private final ClassLoadingProfilePlugin profilePlugin;
+   private final PackageAdminPlugin packageAdmin;
+
+   // The number of threads that apply resolver results
+   private int parallelism = Runtime.getRuntime().availableProcessors();
+   private ExecutorService executor;
+
+   // The resolve requests that wait for the next resolver run
+   private final List<ResolveRequest> pendingRequests = new ArrayList<ResolveRequest>();
+   // The thread that currently runs the resolver, guarded by pendingRequests
+   private Thread resolverThread;
+   // The time in milliseconds to collect resolve requests into a batch
+   private long batchWindow;
+   // The resolved modules whose results could not be applied, these are applied again when requested
+   private final Set<XModule> unappliedModules = Collections.newSetFromMap(new ConcurrentHashMap<XModule, Boolean>());
+
+   // The metrics of the resolver runs
+   private final ResolverMetrics metrics = new ResolverMetrics();
+   // The time in milliseconds after which a resolver run is reported as slow
+   private long slowThreshold = 5000;
+   private ObjectName objectName;
+
+   // The dependencies between the resolved modules
+   private final ModuleDependencyGraph dependencyGraph = new ModuleDependencyGraph();
 
    public ResolverPluginImpl(BundleManager bundleManager)
    {
@@ -77,6 +119,56 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       resolver = XResolverFactory.getResolver();
       nativeCodePlugin = getOptionalPlugin(NativeCodePlugin.class);
       moduleManager = getPlugin(ModuleManagerPlugin.class);
+      profilePlugin = getOptionalPlugin(ClassLoadingProfilePlugin.class);
+      packageAdmin = getOptionalPlugin(PackageAdminPlugin.class);
+   }
+
+   @Override
+   public void initPlugin()
+   {
+      FrameworkState frameworkState = getBundleManager().getFrameworkState();
+      parallelism = frameworkState.getIntProperty(PROP_RESOLVER_PARALLELISM, parallelism);
+      batchWindow = frameworkState.getLongProperty(PROP_RESOLVER_BATCH_WINDOW, batchWindow);
+      slowThreshold = frameworkState.getLongProperty(PROP_RESOLVER_SLOW_THRESHOLD, slowThreshold);
+   }
+
+   @Override
+   public void startPlugin()
+   {
+      try
+      {
+         ObjectName oname = getFrameworkObjectName(ResolverMetricsMBean.OBJECT_NAME);
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         server.registerMBean(new StandardMBean(metrics, ResolverMetricsMBean.class), oname);
+         objectName = oname;
+      }
+      catch (Exception ex)
+      {
+         log.warn("Cannot register resolver metrics", ex);
+      }
+   }
+
+   @Override
+   public synchronized void stopPlugin()
+   {
+      if (objectName != null)
+      {
+         try
+         {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+         }
+         catch (Exception ex)
+         {
+            log.warn("Cannot unregister resolver metrics", ex);
+         }
+         objectName = null;
+      }
+
+      if (executor != null)
+      {
+         executor.shutdownNow();
+         executor = null;
+      }
    }
 
    @Override
@@ -91,34 +183,52 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       return resolver;
    }
 
+   @Override
+   public ResolverMetricsMBean getResolverMetrics()
+   {
+      return metrics;
+   }
+
    @Override
    public void addModule(XModule resModule)
    {
       resolver.addModule(resModule);
+      metrics.moduleAdded();
+      if (packageAdmin != null)
+         packageAdmin.moduleAdded(resModule);
    }
 
    @Override
    public void removeModule(XModule resModule)
    {
       resolver.removeModule(resModule);
+      dependencyGraph.removeModule(resModule);
+      unappliedModules.remove(resModule);
+      metrics.moduleRemoved();
+      if (packageAdmin != null)
+         packageAdmin.moduleRemoved(resModule);
    }
 
    @Override
    public void resolve(XModule resModule) throws BundleException
    {
-      List<XModule> resolved = new ArrayList<XModule>();
-      resolver.setCallbackHandler(new ResolverCallback(resolved));
-      try
-      {
-         resolver.resolve(resModule);
-      }
-      catch (XResolverException ex)
+      if (resModule == null)
+         throw new IllegalArgumentException("Null resModule");
+      
+      // Only a bundle that is already RESOLVED can skip the batch. The resolver marks
+      // a module resolved before the running batch has applied the results.
+      if (isBundleResolved(resModule))
+         return;
+      
+      ResolveRequest request = new ResolveRequest(Collections.singleton(resModule));
+      processRequest(request);
+      request.assertSuccess();
+      
+      if (resModule.isResolved() == false)
       {
+         XResolverException ex = resModule.getAttachment(XResolverException.class);
          throw new BundleException("Cannot resolve bundle resModule: " + resModule, ex);
       }
-
-      // Load the resolved module
-      applyResolverResults(resolved);
    }
 
    @Override
@@ -138,83 +248,333 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       {
          for (XModule aux : resModules)
          {
-            if (!aux.isResolved())
+            if (isBundleResolved(aux) == false)
                unresolved.add(aux);
          }
       }
 
-      List<XModule> resolved = new ArrayList<XModule>();
-      resolver.setCallbackHandler(new ResolverCallback(resolved));
+      if (unresolved.isEmpty())
+         return true;
 
-      // Resolve the modules
-      log.debug("Resolve modules: " + unresolved);
-      boolean allResolved = resolver.resolveAll(unresolved);
+      ResolveRequest request = new ResolveRequest(unresolved);
+      processRequest(request);
       
       // Report resolver errors
-      if (allResolved == false)
+      boolean allResolved = true;
+      for (XModule resModule : unresolved)
       {
-         for (XModule resModule : unresolved)
+         RuntimeException failure = request.getFailure(resModule);
+         if (failure != null)
+         {
+            log.error("Cannot apply resolver results: " + resModule, failure);
+            allResolved = false;
+         }
+         else if (resModule.isResolved() == false)
          {
-            if (resModule.isResolved() == false)
+            XResolverException ex = resModule.getAttachment(XResolverException.class);
+            log.error("Cannot resolve: " + resModule, ex);
+            allResolved = false;
+         }
+      }
+      return allResolved;
+   }
+
+   @Override
+   public Set<XModule> getDependentModules(Collection<XModule> resModules)
+   {
+      if (resModules == null)
+         throw new IllegalArgumentException("Null resModules");
+
+      return dependencyGraph.getDependents(resModules);
+   }
+
+   // True if the results of a resolved module have been applied to its bundle
+   private static boolean isBundleResolved(XModule resModule)
+   {
+      if (resModule.isResolved() == false)
+         return false;
+
+      Bundle bundle = resModule.getAttachment(Bundle.class);
+      if (bundle == null)
+         return true;
+
+      int state = AbstractBundle.assertBundleState(bundle).getState();
+      return (state & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0;
+   }
+
+   // Queue the request and run the resolver until the request is complete. 
+   // The thread that finds the resolver idle resolves all pending requests in a single batch.
+   private void processRequest(ResolveRequest request)
+   {
+      List<ResolveRequest> batch;
+      synchronized (pendingRequests)
+      {
+         // A resolve request from the thread that applies resolver results, i.e. from a synchronous listener
+         if (resolverThread == Thread.currentThread())
+         {
+            batch = Collections.singletonList(request);
+         }
+         else
+         {
+            pendingRequests.add(request);
+            while (request.done == false && resolverThread != null)
             {
-               XResolverException ex = resModule.getAttachment(XResolverException.class);
-               log.error("Cannot resolve: " + resModule, ex);
+               try
+               {
+                  pendingRequests.wait();
+               }
+               catch (InterruptedException ex)
+               {
+                  Thread.currentThread().interrupt();
+                  throw new IllegalStateException("Interrupted while waiting for the resolver", ex);
+               }
             }
+            if (request.done == true)
+               return;
+            resolverThread = Thread.currentThread();
+            batch = null;
          }
       }
       
-      // Apply resolver results
-      applyResolverResults(resolved);
+      // Run a nested request directly
+      if (batch != null)
+      {
+         runBatch(batch);
+         return;
+      }
       
-      return allResolved;
+      try
+      {
+         // Give concurrent requests the chance to join the batch
+         if (batchWindow > 0)
+         {
+            try
+            {
+               Thread.sleep(batchWindow);
+            }
+            catch (InterruptedException ex)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+         
+         synchronized (pendingRequests)
+         {
+            batch = new ArrayList<ResolveRequest>(pendingRequests);
+            pendingRequests.clear();
+         }
+         runBatch(batch);
+      }
+      finally
+      {
+         synchronized (pendingRequests)
+         {
+            resolverThread = null;
+            pendingRequests.notifyAll();
+         }
+      }
    }
 
-   private void applyResolverResults(List<XModule> resolved)
+   private void runBatch(List<ResolveRequest> batch)
+   {
+      Set<XModule> unresolved = new LinkedHashSet<XModule>();
+      List<XModule> resolved = new ArrayList<XModule>();
+      for (ResolveRequest request : batch)
+      {
+         for (XModule aux : request.resModules)
+         {
+            if (aux.isResolved() == false)
+               unresolved.add(aux);
+            
+            // Apply the results again that could not be applied in a previous batch
+            else if (unappliedModules.remove(aux))
+               resolved.add(aux);
+         }
+      }
+      
+      RuntimeException failure = null;
+      Map<XModule, RuntimeException> failures = new HashMap<XModule, RuntimeException>();
+      RunStatistics stats = null;
+      try
+      {
+         if (unresolved.isEmpty() == false || resolved.isEmpty() == false)
+         {
+            stats = new RunStatistics();
+            stats.requested = unresolved.size() + resolved.size();
+            stats.candidates = metrics.getCandidateModules();
+
+            resolver.setCallbackHandler(new ResolverCallback(resolved));
+
+            // Resolve the modules
+            long start = System.nanoTime();
+            if (unresolved.isEmpty() == false)
+            {
+               log.debug("Resolve modules: " + unresolved);
+               try
+               {
+                  resolver.resolveAll(unresolved);
+               }
+               finally
+               {
+                  stats.resolveNanos = System.nanoTime() - start;
+               }
+            }
+
+            // Apply resolver results
+            start = System.nanoTime();
+            try
+            {
+               applyResolverResults(resolved, failures);
+            }
+            finally
+            {
+               stats.applyNanos = System.nanoTime() - start;
+               stats.resolved = resolved.size() - failures.size();
+               for (XModule aux : resolved)
+                  stats.wires += aux.getWires().size();
+            }
+         }
+      }
+      catch (RuntimeException ex)
+      {
+         failure = ex;
+      }
+      finally
+      {
+         for (XModule aux : resolved)
+         {
+            if (aux.isResolved() == true && isBundleResolved(aux) == false)
+               unappliedModules.add(aux);
+         }
+         
+         if (stats != null)
+            runCompleted(unresolved, failures, stats);
+
+         // Every request gets the failures of its own modules
+         synchronized (pendingRequests)
+         {
+            for (ResolveRequest request : batch)
+            {
+               for (XModule aux : request.resModules)
+               {
+                  RuntimeException ex = (failure != null ? failure : failures.get(aux));
+                  if (ex != null)
+                     request.failures.put(aux, ex);
+               }
+               request.done = true;
+            }
+            pendingRequests.notifyAll();
+         }
+      }
+   }
+
+   // Record the metrics of a resolver run and log failures and slow runs. 
+   // No framework events are fired, the callers of the resolver report the failures they care about.
+   private void runCompleted(Set<XModule> unresolved, Map<XModule, RuntimeException> failures, RunStatistics stats)
+   {
+      for (XModule aux : unresolved)
+      {
+         if (aux.isResolved() == false)
+         {
+            XResolverException ex = aux.getAttachment(XResolverException.class);
+            String failure = aux + ": " + (ex != null ? ex.getMessage() : "unresolved");
+            stats.failures.add(failure);
+            log.debug("Resolver failure: " + failure);
+         }
+      }
+      for (Map.Entry<XModule, RuntimeException> entry : failures.entrySet())
+      {
+         String failure = entry.getKey() + ": " + entry.getValue();
+         stats.failures.add(failure);
+         log.debug("Apply failure: " + failure);
+      }
+
+      boolean slow = slowThreshold > 0 && stats.getRunNanos() > slowThreshold * 1000000;
+      metrics.runCompleted(stats, slow);
+      if (slow == true)
+         log.warn("Slow resolver run: " + stats);
+      else
+         log.debug("Resolver run: " + stats);
+   }
+
+   // Apply the results module by module. A module that fails is recorded with its failure 
+   // and left out of the remaining steps, the results of the other modules are still applied.
+   private void applyResolverResults(List<XModule> resolved, Map<XModule, RuntimeException> failures)
    {
       // Attach the fragments to host
-      attachFragmentsToHost(resolved);
+      attachFragmentsToHost(resolved, failures);
+      
+      // Record the wires and fragment attachments of the resolved modules
+      for (XModule aux : resolved)
+         dependencyGraph.addModule(aux);
       
       // For every resolved host bundle create the {@link ModuleSpec}
-      createModuleSpecs(resolved);
+      createModuleSpecs(resolved, failures);
       
       // For every resolved host bundle load the module. This creates the {@link ModuleClassLoader}
-      loadModules(resolved);
+      loadModules(resolved, failures);
+      
+      // Preload the classes that were recorded on a previous framework start
+      if (profilePlugin != null)
+         profilePlugin.replayProfiles(withoutFailures(resolved, failures));
       
       // Resolve native code libraries if there are any
-      resolveNativeCodeLibraries(resolved);
+      resolveNativeCodeLibraries(resolved, failures);
       
       // Change the bundle state to RESOLVED
-      setBundleToResolved(resolved);
+      setBundleToResolved(resolved, failures);
+      
+      // Invalidate cached class loading results
+      if (resolved.size() > failures.size())
+         getBundleManager().incrementBundleGeneration();
    }
 
-   private void attachFragmentsToHost(List<XModule> resolved)
+   private void attachFragmentsToHost(List<XModule> resolved, Map<XModule, RuntimeException> failures)
    {
       for (XModule aux : resolved)
       {
          if (aux.isFragment() == true)
          {
-            FragmentRevision fragRev = (FragmentRevision)aux.getAttachment(AbstractRevision.class);
-            fragRev.attachToHost();
+            try
+            {
+               FragmentRevision fragRev = (FragmentRevision)aux.getAttachment(AbstractRevision.class);
+               fragRev.attachToHost();
+            }
+            catch (RuntimeException ex)
+            {
+               failures.put(aux, ex);
+            }
          }
       }
    }
 
-   private void createModuleSpecs(List<XModule> resolved)
+   private void createModuleSpecs(List<XModule> resolved, Map<XModule, RuntimeException> failures)
    {
-      for (XModule aux : resolved)
+      List<XModule> hostModules = getHostModules(resolved);
+      
+      // Assign the module identifiers before the resolver modules are accessed concurrently
+      for (XModule aux : hostModules)
+         ModuleManager.getModuleIdentifier(aux);
+      
+      // The specs only refer to the identifiers of their dependencies and can be created in any order
+      runModuleTasks(hostModules, new ModuleTask()
       {
-         if (aux.isFragment() == false)
-            moduleManager.createModuleSpec(aux);
-      }
+         @Override
+         public void run(XModule resModule)
+         {
+            moduleManager.createModuleSpec(resModule);
+         }
+      }, failures);
    }
 
-   private void loadModules(List<XModule> resolved)
+   private void loadModules(List<XModule> resolved, Map<XModule, RuntimeException> failures)
    {
-      for (XModule aux : resolved)
+      ModuleTask loadTask = new ModuleTask()
       {
-         if (aux.isFragment() == false)
+         @Override
+         public void run(XModule resModule)
          {
-            ModuleIdentifier identifier = ModuleManager.getModuleIdentifier(aux);
+            ModuleIdentifier identifier = ModuleManager.getModuleIdentifier(resModule);
             try
             {
                moduleManager.loadModule(identifier);
@@ -224,12 +584,105 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
                throw new IllegalStateException("Cannot load module: " + identifier, ex);
             }
          }
-      }
+      };
+      
+      // Load the modules in waves, so that the exporters are loaded before their importers
+      for (List<XModule> wave : DependencyWaves.getWaves(getHostModules(resolved)))
+         runModuleTasks(withoutFailures(wave, failures), loadTask, failures);
    }
 
-   private void resolveNativeCodeLibraries(List<XModule> resolved)
+   private List<XModule> getHostModules(List<XModule> resolved)
    {
+      List<XModule> result = new ArrayList<XModule>();
       for (XModule aux : resolved)
+      {
+         if (aux.isFragment() == false)
+            result.add(aux);
+      }
+      return result;
+   }
+
+   private List<XModule> withoutFailures(List<XModule> resModules, Map<XModule, RuntimeException> failures)
+   {
+      if (failures.isEmpty())
+         return resModules;
+      
+      List<XModule> result = new ArrayList<XModule>();
+      for (XModule aux : resModules)
+      {
+         if (failures.containsKey(aux) == false)
+            result.add(aux);
+      }
+      return result;
+   }
+
+   // Run the task for every module and wait for all of them to complete
+   private void runModuleTasks(List<XModule> resModules, final ModuleTask task, Map<XModule, RuntimeException> failures)
+   {
+      ExecutorService executorService = (resModules.size() > 1 ? getExecutor() : null);
+      if (executorService == null)
+      {
+         for (XModule aux : resModules)
+         {
+            try
+            {
+               task.run(aux);
+            }
+            catch (RuntimeException ex)
+            {
+               failures.put(aux, ex);
+            }
+         }
+         return;
+      }
+      
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final XModule aux : resModules)
+      {
+         futures.add(executorService.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               task.run(aux);
+            }
+         }));
+      }
+      
+      for (int i = 0; i < futures.size(); i++)
+      {
+         try
+         {
+            futures.get(i).get();
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying resolver results", ex);
+         }
+         catch (ExecutionException ex)
+         {
+            Throwable cause = ex.getCause();
+            failures.put(resModules.get(i), cause instanceof RuntimeException ? (RuntimeException)cause : new IllegalStateException(cause));
+         }
+      }
+   }
+
+   private synchronized ExecutorService getExecutor()
+   {
+      if (parallelism <= 1)
+         return null;
+      
+      if (executor == null)
+      {
+         executor = newDaemonThreadPool("ResolverResults", parallelism);
+      }
+      return executor;
+   }
+
+   private void resolveNativeCodeLibraries(List<XModule> resolved, Map<XModule, RuntimeException> failures)
+   {
+      for (XModule aux : withoutFailures(resolved, failures))
       {
          if (aux.getModuleId() != 0)
          {
@@ -240,14 +693,23 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
             // Resolve the native code libraries, if there are any
             NativeLibraryMetaData libMetaData = deployment.getAttachment(NativeLibraryMetaData.class);
             if (nativeCodePlugin != null && libMetaData != null)
-               nativeCodePlugin.resolveNativeCode(bundleState);
+            {
+               try
+               {
+                  nativeCodePlugin.resolveNativeCode(bundleState);
+               }
+               catch (RuntimeException ex)
+               {
+                  failures.put(aux, ex);
+               }
+            }
          }
       }
    }
    
-   private void setBundleToResolved(List<XModule> resolved)
+   private void setBundleToResolved(List<XModule> resolved, Map<XModule, RuntimeException> failures)
    {
-      for (XModule aux : resolved)
+      for (XModule aux : withoutFailures(resolved, failures))
       {
          Bundle bundle = aux.getAttachment(Bundle.class);
          AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
@@ -255,6 +717,41 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       }
    }
 
+   // A request to resolve a set of modules
+   static class ResolveRequest
+   {
+      private final Set<XModule> resModules;
+      // Guarded by the pending requests
+      private boolean done;
+      private final Map<XModule, RuntimeException> failures = new HashMap<XModule, RuntimeException>();
+
+      ResolveRequest(Set<XModule> resModules)
+      {
+         this.resModules = resModules;
+      }
+
+      RuntimeException getFailure(XModule resModule)
+      {
+         return failures.get(resModule);
+      }
+
+      // Throw the first failure in request order
+      void assertSuccess()
+      {
+         for (XModule aux : resModules)
+         {
+            RuntimeException failure = failures.get(aux);
+            if (failure != null)
+               throw failure;
+         }
+      }
+   }
+
+   interface ModuleTask
+   {
+      void run(XModule resModule);
+   }
+
    class ResolverCallback implements XResolverCallback
    {
       private List<XModule> resolved;
@@ -267,13 +764,33 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       @Override
       public void markResolved(XModule module)
       {
-         // Construct debug message
+         // The wire dump is only rendered when trace is enabled
+         if (log.isTraceEnabled())
+            log.trace(new WireDump(module));
+         else
+            log.debug("Mark resolved: " + module);
+         
+         resolved.add(module);
+      }
+   }
+
+   // Renders the wires of a module when it is logged
+   static class WireDump
+   {
+      private final XModule module;
+
+      WireDump(XModule module)
+      {
+         this.module = module;
+      }
+
+      @Override
+      public String toString()
+      {
          StringBuffer buffer = new StringBuffer("Mark resolved: " + module);
          for (XWire wire : module.getWires())
             buffer.append("\n " + wire.toString());
-         
-         log.debug(buffer);
-         resolved.add(module);
+         return buffer.toString();
       }
    }
 }
\ No newline at end of file
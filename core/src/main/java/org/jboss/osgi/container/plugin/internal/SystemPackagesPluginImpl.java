@@ -25,13 +25,16 @@ package org.jboss.osgi.container.plugin.internal;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.SystemPackagesPlugin;
+import org.jboss.osgi.container.util.PackageNameMatcher;
 import org.osgi.framework.Constants;
 
 /**
@@ -51,14 +54,29 @@ public class SystemPackagesPluginImpl extends AbstractPlugin implements SystemPa
    private List<String> allPackageNames = new ArrayList<String>();
    // The boot delegation packages 
    private List<String> bootDelegationPackages = new ArrayList<String>();
+   // The set of system package names, compiled on init
+   private Set<String> systemPackageNames;
+   // The boot delegation patterns including java.*, compiled on init
+   private PackageNameMatcher bootDelegationMatcher;
+   // True when the system packages are initialized
+   private volatile boolean initialized;
 
    public SystemPackagesPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
    }
 
-   private void initSystemPackages()
+   private void assertInitialized()
    {
+      if (initialized == false)
+         initSystemPackages();
+   }
+
+   private synchronized void initSystemPackages()
+   {
+      if (initialized == true)
+         return;
+
       FrameworkState frameworkState = getBundleManager().getFrameworkState();
       String systemPackages = frameworkState.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES);
 
@@ -160,20 +178,27 @@ public class SystemPackagesPluginImpl extends AbstractPlugin implements SystemPa
          String[] packageNames = bootDelegationProp.split(",");
          for (String packageName : packageNames)
          {
-            bootDelegationPackages.add(packageName);
+            bootDelegationPackages.add(packageName.trim());
          }
       }
       else
       {
          bootDelegationPackages.add("sun.reflect");
       }
+
+      // Compile the lookup structures
+      systemPackageNames = new HashSet<String>(allPackageNames);
+      List<String> patterns = new ArrayList<String>(bootDelegationPackages);
+      patterns.add("java.*");
+      bootDelegationMatcher = PackageNameMatcher.compile(patterns);
+
+      initialized = true;
    }
 
    @Override
    public List<String> getBootDelegationPackages()
    {
-      if (allPackages.isEmpty())
-         initSystemPackages();
+      assertInitialized();
       
       return Collections.unmodifiableList(bootDelegationPackages);
    }
@@ -184,30 +209,26 @@ public class SystemPackagesPluginImpl extends AbstractPlugin implements SystemPa
       if (name == null)
          throw new IllegalArgumentException("Null package name");
 
-      if (allPackages.isEmpty())
-         initSystemPackages();
+      assertInitialized();
 
-      if (name.startsWith("java."))
-         return true;
-      
-      if (bootDelegationPackages.contains(name))
-         return true;
-      
-      // Match foo with foo.*
-      for (String aux : bootDelegationPackages)
-      {
-         if (aux.endsWith(".*") && name.startsWith(aux.substring(0, aux.length() -2 )))
-            return true;
-      }
-      
-      return false;
+      return bootDelegationMatcher.matchesPackage(name);
+   }
+
+   @Override
+   public boolean isBootDelegationClass(String className)
+   {
+      if (className == null)
+         throw new IllegalArgumentException("Null class name");
+
+      assertInitialized();
+
+      return bootDelegationMatcher.matchesClass(className);
    }
 
    @Override
    public List<String> getSystemPackages(boolean version)
    {
-      if (allPackages.isEmpty())
-         initSystemPackages();
+      assertInitialized();
 
       return Collections.unmodifiableList(version ? allPackages : allPackageNames);
    }
@@ -218,15 +239,14 @@ public class SystemPackagesPluginImpl extends AbstractPlugin implements SystemPa
       if (name == null)
          throw new IllegalArgumentException("Null package name");
       
-      if (allPackages.isEmpty())
-         initSystemPackages();
+      assertInitialized();
 
       // [TODO] version specifier for system packages
       int semiIndex = name.indexOf(';');
       if (semiIndex > 0)
          name = name.substring(0, semiIndex);
 
-      return allPackageNames.contains(name);
+      return systemPackageNames.contains(name);
    }
 
    private String packagesAsString(List<String> sysPackages)
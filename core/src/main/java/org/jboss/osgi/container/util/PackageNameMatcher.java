@@ -0,0 +1,185 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.util.Collection;
+
+/**
+ * An immutable matcher for package name patterns.
+ *
+ * The supported patterns are
+ *
+ * - '*' matches every package
+ * - 'org.foo.*' matches org.foo and all of its sub packages
+ * - 'org.foo' matches exactly org.foo
+ *
+ * The patterns are compiled into a character trie, so that a match can be
+ * determined in a single pass over the name without creating any objects.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class PackageNameMatcher
+{
+   private static final char[] NO_KEYS = new char[0];
+   private static final Node[] NO_NODES = new Node[0];
+
+   private final Node root;
+   private final boolean matchAll;
+   private final boolean empty;
+
+   private PackageNameMatcher(Node root, boolean matchAll, boolean empty)
+   {
+      this.root = root;
+      this.matchAll = matchAll;
+      this.empty = empty;
+   }
+
+   /**
+    * Compile the given package name patterns.
+    */
+   public static PackageNameMatcher compile(Collection<String> patterns)
+   {
+      if (patterns == null)
+         throw new IllegalArgumentException("Null patterns");
+
+      Node root = new Node();
+      boolean matchAll = false;
+      boolean empty = true;
+      for (String pattern : patterns)
+      {
+         pattern = pattern.trim();
+         if (pattern.length() == 0)
+            continue;
+
+         empty = false;
+         if (pattern.equals("*"))
+         {
+            matchAll = true;
+            continue;
+         }
+
+         boolean wildcard = pattern.endsWith(".*");
+         if (wildcard)
+            pattern = pattern.substring(0, pattern.length() - 2);
+
+         Node node = root;
+         for (int i = 0; i < pattern.length(); i++)
+            node = node.addChild(pattern.charAt(i));
+
+         if (wildcard)
+            node.wildcard = true;
+         else
+            node.exact = true;
+      }
+      return new PackageNameMatcher(root, matchAll, empty);
+   }
+
+   /**
+    * True if no patterns were compiled into this matcher.
+    */
+   public boolean isEmpty()
+   {
+      return empty;
+   }
+
+   /**
+    * True if the given package name matches one of the patterns.
+    */
+   public boolean matchesPackage(String packageName)
+   {
+      if (packageName == null)
+         throw new IllegalArgumentException("Null packageName");
+
+      return matches(packageName, packageName.length());
+   }
+
+   /**
+    * True if the package of the given class name matches one of the patterns.
+    */
+   public boolean matchesClass(String className)
+   {
+      if (className == null)
+         throw new IllegalArgumentException("Null className");
+
+      int idx = className.lastIndexOf('.');
+      return matches(className, idx > -1 ? idx : 0);
+   }
+
+   private boolean matches(String name, int length)
+   {
+      if (matchAll)
+         return true;
+
+      Node node = root;
+      for (int i = 0; i < length; i++)
+      {
+         char c = name.charAt(i);
+
+         // A wildcard matches all sub packages
+         if (c == '.' && node.wildcard)
+            return true;
+
+         node = node.getChild(c);
+         if (node == null)
+            return false;
+      }
+      return node.exact || node.wildcard;
+   }
+
+   static class Node
+   {
+      private char[] keys = NO_KEYS;
+      private Node[] children = NO_NODES;
+      private boolean exact;
+      private boolean wildcard;
+
+      Node getChild(char c)
+      {
+         char[] auxkeys = keys;
+         for (int i = 0; i < auxkeys.length; i++)
+         {
+            if (auxkeys[i] == c)
+               return children[i];
+         }
+         return null;
+      }
+
+      Node addChild(char c)
+      {
+         Node child = getChild(c);
+         if (child == null)
+         {
+            int size = keys.length;
+            char[] auxkeys = new char[size + 1];
+            Node[] auxchildren = new Node[size + 1];
+            System.arraycopy(keys, 0, auxkeys, 0, size);
+            System.arraycopy(children, 0, auxchildren, 0, size);
+            auxkeys[size] = c;
+            auxchildren[size] = child = new Node();
+            keys = auxkeys;
+            children = auxchildren;
+         }
+         return child;
+      }
+   }
+}
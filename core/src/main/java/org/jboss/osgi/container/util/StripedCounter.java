@@ -0,0 +1,78 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads concurrent updates over several cells.
+ * 
+ * Each thread updates the cell selected by its id. Cells are spaced a cache 
+ * line apart, so that threads on different cores do not contend on the same line. 
+ * Reading the value sums all cells and is therefore more expensive than an update.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class StripedCounter
+{
+   // The number of longs between two cells
+   private static final int PADDING = 8;
+   private static final int STRIPES = getStripes();
+
+   private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+   private static int getStripes()
+   {
+      // The next power of two of the number of processors
+      int processors = Runtime.getRuntime().availableProcessors();
+      int stripes = 1;
+      while (stripes < processors)
+         stripes <<= 1;
+      return stripes;
+   }
+
+   public void increment()
+   {
+      add(1);
+   }
+
+   public void add(long delta)
+   {
+      int index = ((int)Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+      cells.addAndGet(index, delta);
+   }
+
+   public long sum()
+   {
+      long result = 0;
+      for (int i = 0; i < STRIPES; i++)
+         result += cells.get(i * PADDING);
+      return result;
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.valueOf(sum());
+   }
+}
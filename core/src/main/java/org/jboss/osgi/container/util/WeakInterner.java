@@ -0,0 +1,66 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out one canonical instance for equal values.
+ * 
+ * The interner only holds weak references, so a canonical instance is 
+ * dropped once it is no longer used outside of the interner.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public final class WeakInterner<T>
+{
+   private final Map<T, WeakReference<T>> instances = new WeakHashMap<T, WeakReference<T>>();
+
+   /**
+    * Get the canonical instance that is equal to the given value
+    */
+   public synchronized T intern(T value)
+   {
+      if (value == null)
+         throw new IllegalArgumentException("Null value");
+
+      WeakReference<T> ref = instances.get(value);
+      T result = (ref != null ? ref.get() : null);
+      if (result == null)
+      {
+         instances.put(value, new WeakReference<T>(value));
+         result = value;
+      }
+      return result;
+   }
+
+   /**
+    * Get the number of canonical instances that have not been collected yet
+    */
+   public synchronized int size()
+   {
+      return instances.size();
+   }
+}
@@ -0,0 +1,277 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a synthetic population of bundles in memory.
+ *
+ * Bundle N only imports packages that are exported by bundles with a lower index,
+ * so that every generated population is resolvable. The shape of the graph is
+ * controlled by the {@link Config}.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class BundleGraphGenerator
+{
+   static final String NAME_PREFIX = "bench.b";
+   static final String PACKAGE_PREFIX = "bench.p";
+
+   private final Config config;
+   private final Random random;
+
+   public BundleGraphGenerator(Config config)
+   {
+      if (config == null)
+         throw new IllegalArgumentException("Null config");
+
+      this.config = config;
+      this.random = new Random(config.seed);
+   }
+
+   /**
+    * Generate the configured number of host bundles together with their fragments.
+    */
+   public List<SyntheticBundle> generate()
+   {
+      List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+      for (int i = 0; i < config.bundleCount; i++)
+      {
+         result.add(createHost(i, i));
+         if (i > 0 && random.nextDouble() < config.fragmentRatio)
+            result.add(createFragment(i));
+      }
+      return result;
+   }
+
+   /**
+    * Generate a bundle that is installed after the population and
+    * imports from the given number of randomly chosen bundles.
+    */
+   public SyntheticBundle generateLate(int index, int importCount)
+   {
+      Config aux = new Config(config);
+      aux.importsPerBundle = importCount;
+      aux.requireBundleChain = 0;
+      aux.seed = config.seed + index + 1;
+      return new BundleGraphGenerator(aux).createHost(config.bundleCount + index, config.bundleCount);
+   }
+
+   private SyntheticBundle createHost(int index, int providerCount)
+   {
+      String symbolicName = NAME_PREFIX + index;
+      Manifest manifest = createManifest(symbolicName);
+      Attributes attributes = manifest.getMainAttributes();
+
+      // Import packages from bundles with a lower index
+      Set<String> imports = new LinkedHashSet<String>();
+      for (int i = 0; providerCount > 0 && i < config.importsPerBundle; i++)
+      {
+         int provider = random.nextInt(providerCount);
+         int export = random.nextInt(config.exportsPerBundle);
+         imports.add(getPackageName(provider, export));
+      }
+      if (imports.isEmpty() == false)
+      {
+         StringBuffer buffer = new StringBuffer();
+         for (String packageName : imports)
+         {
+            if (buffer.length() > 0)
+               buffer.append(",");
+
+            buffer.append(packageName);
+            if (random.nextDouble() < config.versionRangeRatio)
+               buffer.append(";version=\"[1.0,2.0)\"");
+         }
+         attributes.putValue("Import-Package", buffer.toString());
+      }
+
+      // Export packages, optionally with uses constraints on the imported packages
+      StringBuffer buffer = new StringBuffer();
+      List<String> usable = new ArrayList<String>(imports);
+      for (int i = 0; i < config.exportsPerBundle; i++)
+      {
+         if (buffer.length() > 0)
+            buffer.append(",");
+
+         buffer.append(getPackageName(index, i) + ";version=" + getPackageVersion(index));
+         if (usable.isEmpty() == false && random.nextDouble() < config.usesDensity)
+            buffer.append(";uses:=\"" + usable.get(random.nextInt(usable.size())) + "\"");
+      }
+      attributes.putValue("Export-Package", buffer.toString());
+
+      // Require the previous bundle in the chain
+      if (config.requireBundleChain > 1 && index % config.requireBundleChain != 0)
+         attributes.putValue("Require-Bundle", NAME_PREFIX + (index - 1));
+
+      return new SyntheticBundle(symbolicName, false, manifest);
+   }
+
+   private SyntheticBundle createFragment(int hostIndex)
+   {
+      String symbolicName = NAME_PREFIX + hostIndex + ".fragment";
+      Manifest manifest = createManifest(symbolicName);
+      Attributes attributes = manifest.getMainAttributes();
+      attributes.putValue("Fragment-Host", NAME_PREFIX + hostIndex);
+      attributes.putValue("Export-Package", PACKAGE_PREFIX + hostIndex + ".fragment;version=" + getPackageVersion(hostIndex));
+      return new SyntheticBundle(symbolicName, true, manifest);
+   }
+
+   private Manifest createManifest(String symbolicName)
+   {
+      Manifest manifest = new Manifest();
+      Attributes attributes = manifest.getMainAttributes();
+      attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      attributes.putValue("Bundle-ManifestVersion", "2");
+      attributes.putValue("Bundle-SymbolicName", symbolicName);
+      attributes.putValue("Bundle-Version", "1.0.0");
+      return manifest;
+   }
+
+   static String getPackageName(int bundleIndex, int exportIndex)
+   {
+      return PACKAGE_PREFIX + bundleIndex + ".e" + exportIndex;
+   }
+
+   private static String getPackageVersion(int bundleIndex)
+   {
+      return "1." + (bundleIndex % 10) + ".0";
+   }
+
+   /**
+    * The shape of a generated bundle population.
+    */
+   public static class Config
+   {
+      /** The number of host bundles */
+      public int bundleCount = 100;
+      /** The number of packages each bundle exports */
+      public int exportsPerBundle = 3;
+      /** The number of packages each bundle imports */
+      public int importsPerBundle = 5;
+      /** The fraction of imports that use a version range */
+      public double versionRangeRatio = 0.5;
+      /** The fraction of host bundles that get a fragment attached */
+      public double fragmentRatio = 0.1;
+      /** The length of Require-Bundle chains, zero for none */
+      public int requireBundleChain = 5;
+      /** The fraction of exports that carry a uses directive */
+      public double usesDensity = 0.2;
+      /** The seed for the random generator */
+      public long seed = 42;
+
+      public Config()
+      {
+      }
+
+      public Config(Config other)
+      {
+         bundleCount = other.bundleCount;
+         exportsPerBundle = other.exportsPerBundle;
+         importsPerBundle = other.importsPerBundle;
+         versionRangeRatio = other.versionRangeRatio;
+         fragmentRatio = other.fragmentRatio;
+         requireBundleChain = other.requireBundleChain;
+         usesDensity = other.usesDensity;
+         seed = other.seed;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "[bundles=" + bundleCount + ",exports=" + exportsPerBundle + ",imports=" + importsPerBundle + ",ranges=" + versionRangeRatio
+               + ",fragments=" + fragmentRatio + ",chain=" + requireBundleChain + ",uses=" + usesDensity + ",seed=" + seed + "]";
+      }
+   }
+
+   /**
+    * A generated bundle that only consists of its manifest.
+    */
+   public static class SyntheticBundle
+   {
+      private final String symbolicName;
+      private final boolean fragment;
+      private final Manifest manifest;
+
+      SyntheticBundle(String symbolicName, boolean fragment, Manifest manifest)
+      {
+         this.symbolicName = symbolicName;
+         this.fragment = fragment;
+         this.manifest = manifest;
+      }
+
+      public String getSymbolicName()
+      {
+         return symbolicName;
+      }
+
+      public String getLocation()
+      {
+         return "benchmark://" + symbolicName;
+      }
+
+      public boolean isFragment()
+      {
+         return fragment;
+      }
+
+      public Manifest getManifest()
+      {
+         return manifest;
+      }
+
+      /**
+       * Get the bundle content as jar bytes.
+       */
+      public byte[] toByteArray()
+      {
+         try
+         {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            JarOutputStream jos = new JarOutputStream(baos, manifest);
+            jos.close();
+            return baos.toByteArray();
+         }
+         catch (IOException ex)
+         {
+            throw new IllegalStateException("Cannot create bundle content: " + symbolicName, ex);
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         return symbolicName;
+      }
+   }
+}
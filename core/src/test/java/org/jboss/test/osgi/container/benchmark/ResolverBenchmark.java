@@ -0,0 +1,317 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkImpl;
+import org.jboss.osgi.container.plugin.PackageAdminPlugin;
+import org.jboss.osgi.container.plugin.ResolverPlugin;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.Config;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.SyntheticBundle;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+
+/**
+ * Measures the resolver against a synthetic bundle population.
+ *
+ * Every run starts a fresh framework, installs the generated population and measures
+ *
+ * - install: BundleManager.installBundle for every generated bundle
+ * - resolveAll: ResolverPlugin.resolveAll for the whole population
+ * - resolveLate: ResolverPlugin.resolve for a single bundle installed after the population
+ * - refreshPackages: PackageAdmin.refreshPackages of the lowest bundles until PACKAGES_REFRESHED
+ * - installResolve: BundleManager.installBundle followed by resolve for additional bundles
+ *
+ * The harness is run from the command line, for example
+ *
+ * java -Dbenchmark.bundles=100,1000,10000 -Dbenchmark.iterations=3 org.jboss.test.osgi.container.benchmark.ResolverBenchmark
+ *
+ * The shape of the population is configured with the benchmark.exports, benchmark.imports,
+ * benchmark.ranges, benchmark.fragments, benchmark.chain, benchmark.uses and benchmark.seed properties.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ResolverBenchmark
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(ResolverBenchmark.class);
+
+   public static final String INSTALL = "install";
+   public static final String RESOLVE_ALL = "resolveAll";
+   public static final String RESOLVE_LATE = "resolveLate";
+   public static final String REFRESH_PACKAGES = "refreshPackages";
+   public static final String INSTALL_RESOLVE = "installResolve";
+
+   private final Config config;
+   private final File storageDir;
+   private int lateImports = 20;
+   private int lateBundles = 10;
+   private int refreshBundles = 5;
+   private int runCount;
+
+   public ResolverBenchmark(Config config, File storageDir)
+   {
+      if (config == null)
+         throw new IllegalArgumentException("Null config");
+      if (storageDir == null)
+         throw new IllegalArgumentException("Null storageDir");
+
+      this.config = config;
+      this.storageDir = storageDir;
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      int iterations = Integer.getInteger("benchmark.iterations", 3);
+      File storageDir = new File(System.getProperty("benchmark.storage", "./target/benchmark-store"));
+      for (String count : System.getProperty("benchmark.bundles", "100,1000").split(","))
+      {
+         Config config = new Config();
+         config.bundleCount = Integer.parseInt(count.trim());
+         config.exportsPerBundle = Integer.getInteger("benchmark.exports", config.exportsPerBundle);
+         config.importsPerBundle = Integer.getInteger("benchmark.imports", config.importsPerBundle);
+         config.versionRangeRatio = getDouble("benchmark.ranges", config.versionRangeRatio);
+         config.fragmentRatio = getDouble("benchmark.fragments", config.fragmentRatio);
+         config.requireBundleChain = Integer.getInteger("benchmark.chain", config.requireBundleChain);
+         config.usesDensity = getDouble("benchmark.uses", config.usesDensity);
+         config.seed = Long.getLong("benchmark.seed", config.seed);
+
+         ResolverBenchmark benchmark = new ResolverBenchmark(config, storageDir);
+
+         // Warm up the JIT with a run that is not reported
+         benchmark.run();
+
+         List<Result> results = new ArrayList<Result>();
+         for (int i = 0; i < iterations; i++)
+            results.add(benchmark.run());
+
+         System.out.println(config);
+         for (Result result : results)
+            System.out.println("   " + result);
+         System.out.println("   min " + Result.min(results));
+      }
+   }
+
+   public void setLateImports(int lateImports)
+   {
+      this.lateImports = lateImports;
+   }
+
+   public void setLateBundles(int lateBundles)
+   {
+      this.lateBundles = lateBundles;
+   }
+
+   public void setRefreshBundles(int refreshBundles)
+   {
+      this.refreshBundles = refreshBundles;
+   }
+
+   /**
+    * Run all measurements against a fresh framework.
+    */
+   public Result run() throws Exception
+   {
+      BundleGraphGenerator generator = new BundleGraphGenerator(config);
+      List<SyntheticBundle> population = generator.generate();
+
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, new File(storageDir, "run-" + (runCount++)).getAbsolutePath());
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+
+      BundleManager bundleManager = new BundleManager(props);
+      FrameworkImpl framework = new FrameworkImpl(bundleManager);
+      framework.start();
+      try
+      {
+         Result result = new Result(population.size());
+         ResolverPlugin resolverPlugin = bundleManager.getPlugin(ResolverPlugin.class);
+
+         // Install the population
+         long start = System.nanoTime();
+         List<AbstractBundle> hosts = new ArrayList<AbstractBundle>();
+         for (SyntheticBundle aux : population)
+         {
+            AbstractBundle bundle = install(bundleManager, aux);
+            if (aux.isFragment() == false)
+               hosts.add(bundle);
+         }
+         result.put(INSTALL, start);
+
+         // Resolve the population
+         start = System.nanoTime();
+         result.setAllResolved(resolverPlugin.resolveAll(null));
+         result.put(RESOLVE_ALL, start);
+
+         // Resolve a single bundle that was installed after the population
+         AbstractBundle late = install(bundleManager, generator.generateLate(0, lateImports));
+         start = System.nanoTime();
+         resolverPlugin.resolve(late.getResolverModule());
+         result.put(RESOLVE_LATE, start);
+
+         // Refresh the bundles at the bottom of the graph
+         int count = Math.min(refreshBundles, hosts.size());
+         Bundle[] refresh = new Bundle[count];
+         for (int i = 0; i < count; i++)
+            refresh[i] = hosts.get(i);
+
+         start = System.nanoTime();
+         refreshPackages(bundleManager, refresh);
+         result.put(REFRESH_PACKAGES, start);
+
+         // Install and resolve bundles one after the other
+         start = System.nanoTime();
+         for (int i = 1; i <= lateBundles; i++)
+         {
+            AbstractBundle bundle = install(bundleManager, generator.generateLate(i, lateImports));
+            resolverPlugin.resolve(bundle.getResolverModule());
+         }
+         result.put(INSTALL_RESOLVE, start);
+
+         log.debug("Benchmark result: " + result);
+         return result;
+      }
+      finally
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+
+   private AbstractBundle install(BundleManager bundleManager, SyntheticBundle aux) throws BundleException
+   {
+      return bundleManager.installBundle(aux.getLocation(), new ByteArrayInputStream(aux.toByteArray()));
+   }
+
+   private void refreshPackages(BundleManager bundleManager, Bundle[] bundles) throws Exception
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      FrameworkListener listener = new FrameworkListener()
+      {
+         @Override
+         public void frameworkEvent(FrameworkEvent event)
+         {
+            if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED)
+               latch.countDown();
+         }
+      };
+      bundleManager.getSystemContext().addFrameworkListener(listener);
+      try
+      {
+         PackageAdminPlugin packageAdmin = bundleManager.getPlugin(PackageAdminPlugin.class);
+         packageAdmin.refreshPackages(bundles);
+         if (latch.await(5, TimeUnit.MINUTES) == false)
+            throw new IllegalStateException("Timeout waiting for PACKAGES_REFRESHED");
+      }
+      finally
+      {
+         bundleManager.getSystemContext().removeFrameworkListener(listener);
+      }
+   }
+
+   private static double getDouble(String key, double defaultValue)
+   {
+      String value = System.getProperty(key);
+      return value != null ? Double.parseDouble(value) : defaultValue;
+   }
+
+   /**
+    * The measured times of a single run in milliseconds.
+    */
+   public static class Result
+   {
+      private final int bundleCount;
+      private final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+      private boolean allResolved;
+
+      Result(int bundleCount)
+      {
+         this.bundleCount = bundleCount;
+      }
+
+      static Result min(List<Result> results)
+      {
+         Result min = new Result(results.get(0).bundleCount);
+         min.allResolved = true;
+         for (Result result : results)
+         {
+            min.allResolved &= result.allResolved;
+            for (Entry<String, Long> entry : result.timings.entrySet())
+            {
+               Long aux = min.timings.get(entry.getKey());
+               if (aux == null || entry.getValue() < aux)
+                  min.timings.put(entry.getKey(), entry.getValue());
+            }
+         }
+         return min;
+      }
+
+      void put(String name, long start)
+      {
+         timings.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+
+      public long getTime(String name)
+      {
+         Long value = timings.get(name);
+         return value != null ? value : -1;
+      }
+
+      public int getBundleCount()
+      {
+         return bundleCount;
+      }
+
+      public boolean isAllResolved()
+      {
+         return allResolved;
+      }
+
+      void setAllResolved(boolean allResolved)
+      {
+         this.allResolved = allResolved;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "[bundles=" + bundleCount + ",resolved=" + allResolved + "," + timings + "]";
+      }
+   }
+}
@@ -0,0 +1,72 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.Config;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.SyntheticBundle;
+import org.junit.Test;
+
+/**
+ * Runs the {@link ResolverBenchmark} on a small population,
+ * so that the harness keeps working with the framework.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ResolverBenchmarkTestCase
+{
+   @Test
+   public void testGenerator() throws Exception
+   {
+      Config config = new Config();
+      config.fragmentRatio = 0;
+      List<SyntheticBundle> population = new BundleGraphGenerator(config).generate();
+      assertEquals(config.bundleCount, population.size());
+
+      // The generator is deterministic for a given seed
+      List<SyntheticBundle> other = new BundleGraphGenerator(config).generate();
+      for (int i = 0; i < population.size(); i++)
+         assertEquals(population.get(i).getManifest(), other.get(i).getManifest());
+   }
+
+   @Test
+   public void testBenchmark() throws Exception
+   {
+      Config config = new Config();
+      ResolverBenchmark benchmark = new ResolverBenchmark(config, new File("./target/benchmark-store"));
+      benchmark.setLateBundles(2);
+
+      ResolverBenchmark.Result result = benchmark.run();
+      assertTrue("All bundles resolved", result.isAllResolved());
+      assertTrue(result.getTime(ResolverBenchmark.INSTALL) >= 0);
+      assertTrue(result.getTime(ResolverBenchmark.RESOLVE_ALL) >= 0);
+      assertTrue(result.getTime(ResolverBenchmark.RESOLVE_LATE) >= 0);
+      assertTrue(result.getTime(ResolverBenchmark.REFRESH_PACKAGES) >= 0);
+      assertTrue(result.getTime(ResolverBenchmark.INSTALL_RESOLVE) >= 0);
+   }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkImpl;
+import org.jboss.osgi.container.plugin.DeployerServicePlugin;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.Config;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.SyntheticBundle;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Test the bulk install through the {@link DeployerServicePlugin}.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class BulkInstallTestCase
+{
+   @Test
+   public void testInstallBundles() throws Exception
+   {
+      Config config = new Config();
+      config.bundleCount = 20;
+      config.fragmentRatio = 0;
+      List<SyntheticBundle> population = new BundleGraphGenerator(config).generate();
+
+      File targetDir = new File("./target/bulk-install");
+      List<String> locations = new ArrayList<String>();
+      for (SyntheticBundle aux : population)
+      {
+         File file = new File(targetDir, aux.getSymbolicName() + ".jar");
+         file.getParentFile().mkdirs();
+         FileOutputStream fos = new FileOutputStream(file);
+         fos.write(aux.toByteArray());
+         fos.close();
+         locations.add(file.toURI().toURL().toExternalForm());
+      }
+
+      // Install one location twice
+      locations.add(locations.get(0));
+
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, new File(targetDir, "store").getAbsolutePath());
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+      props.put(DeployerServicePlugin.PROP_INSTALL_PARALLELISM, "4");
+
+      BundleManager bundleManager = new BundleManager(props);
+      FrameworkImpl framework = new FrameworkImpl(bundleManager);
+      framework.start();
+      try
+      {
+         DeployerServicePlugin deployer = bundleManager.getPlugin(DeployerServicePlugin.class);
+         List<Bundle> bundles = deployer.installBundles(locations);
+         assertEquals(locations.size(), bundles.size());
+         assertSame(bundles.get(0), bundles.get(population.size()));
+
+         // Bundle ids follow the order of the locations
+         for (int i = 0; i < population.size(); i++)
+         {
+            Bundle bundle = bundles.get(i);
+            assertEquals(population.get(i).getSymbolicName(), bundle.getSymbolicName());
+            assertEquals(Bundle.INSTALLED, bundle.getState());
+            if (i > 0)
+               assertTrue(bundle.getBundleId() > bundles.get(i - 1).getBundleId());
+         }
+      }
+      finally
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+}
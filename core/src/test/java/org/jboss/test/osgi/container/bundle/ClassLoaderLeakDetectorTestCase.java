@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkImpl;
+import org.jboss.osgi.container.plugin.ClassLoaderLeakDetectorPlugin;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.container.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.container.loading.subB.SimpleService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Test that the class loaders of removed modules are tracked by the leak detector.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassLoaderLeakDetectorTestCase
+{
+   private static final String SYMBOLIC_NAME = "leak-bundle";
+
+   private BundleManager bundleManager;
+   private FrameworkImpl framework;
+   private ClassLoaderLeakDetectorPlugin leakDetector;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, "./target/leak-detector");
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+
+      bundleManager = new BundleManager(props);
+      framework = new FrameworkImpl(bundleManager);
+      framework.start();
+
+      leakDetector = bundleManager.getOptionalPlugin(ClassLoaderLeakDetectorPlugin.class);
+      assertNotNull("ClassLoaderLeakDetectorPlugin registered", leakDetector);
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (framework != null)
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+
+   @Test
+   public void testUninstalledModuleCollected() throws Exception
+   {
+      installLoadAndUninstall();
+      assertEquals(1, leakDetector.getRemovedModuleCount());
+
+      // Nothing refers to the class loader of the removed module any more
+      List<String> leaks = leakDetector.checkLeaks();
+      for (int i = 0; i < 10 && leaks.isEmpty() == false; i++)
+         leaks = leakDetector.checkLeaks();
+
+      assertTrue("No leaks: " + leaks, leaks.isEmpty());
+      assertEquals(0, leakDetector.getRemovedModuleCount());
+   }
+
+   @Test
+   public void testRetainedClassReported() throws Exception
+   {
+      Class<?> retained = installLoadAndUninstall();
+      assertEquals(1, leakDetector.getRemovedModuleCount());
+
+      // The retained class keeps the class loader of the removed module alive
+      List<String> leaks = leakDetector.checkLeaks();
+      assertEquals("One leak: " + leaks, 1, leaks.size());
+      assertTrue(leaks.get(0), leaks.get(0).contains(SYMBOLIC_NAME));
+      assertEquals(1, leakDetector.getRemovedModuleCount());
+      assertEquals(SimpleService.class.getName(), retained.getName());
+   }
+
+   // Install the bundle, load a class from it and uninstall it again
+   private Class<?> installLoadAndUninstall() throws Exception
+   {
+      File bundleFile = createBundle(new File("./target/leak-detector"));
+      Bundle bundle = bundleManager.getSystemContext().installBundle(bundleFile.toURI().toURL().toExternalForm());
+      Class<?> result = bundle.loadClass(SimpleService.class.getName());
+      assertTrue("Loaded from bundle", result.getClassLoader() != getClass().getClassLoader());
+
+      // The bundle has no importers, so its module is removed right away
+      bundle.uninstall();
+      assertEquals(Bundle.UNINSTALLED, bundle.getState());
+      return result;
+   }
+
+   private File createBundle(File targetDir) throws Exception
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, SYMBOLIC_NAME);
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleActivator(SimpleActivator.class);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+
+      File bundleFile = new File(targetDir, SYMBOLIC_NAME + ".jar");
+      bundleFile.getParentFile().mkdirs();
+      FileOutputStream fos = new FileOutputStream(bundleFile);
+      VFSUtils.copyStream(archive.as(ZipExporter.class).exportZip(), fos);
+      fos.close();
+      return bundleFile;
+   }
+}
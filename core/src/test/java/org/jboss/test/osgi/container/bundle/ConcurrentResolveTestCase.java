@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkImpl;
+import org.jboss.osgi.container.plugin.ResolverPlugin;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.Config;
+import org.jboss.test.osgi.container.benchmark.BundleGraphGenerator.SyntheticBundle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Test resolve requests that are issued from several threads concurrently.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ConcurrentResolveTestCase
+{
+   private static final int THREAD_COUNT = 8;
+
+   private BundleManager bundleManager;
+   private FrameworkImpl framework;
+   private List<AbstractBundle> bundles;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      Config config = new Config();
+      config.bundleCount = 40;
+      config.fragmentRatio = 0;
+
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, new File("./target/concurrent-resolve").getAbsolutePath());
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+      props.put(ResolverPlugin.PROP_RESOLVER_PARALLELISM, "4");
+      props.put(ResolverPlugin.PROP_RESOLVER_BATCH_WINDOW, "10");
+
+      bundleManager = new BundleManager(props);
+      framework = new FrameworkImpl(bundleManager);
+      framework.start();
+
+      bundles = new ArrayList<AbstractBundle>();
+      for (SyntheticBundle aux : new BundleGraphGenerator(config).generate())
+         bundles.add(bundleManager.installBundle(aux.getLocation(), new ByteArrayInputStream(aux.toByteArray())));
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      framework.stop();
+      framework.waitForStop(10000);
+   }
+
+   @Test
+   public void testConcurrentResolve() throws Exception
+   {
+      List<Throwable> failures = resolveConcurrently(bundles);
+      assertTrue("Unexpected failures: " + failures, failures.isEmpty());
+
+      for (AbstractBundle aux : bundles)
+         assertEquals(aux.getSymbolicName(), Bundle.RESOLVED, aux.getState());
+   }
+
+   @Test
+   public void testConcurrentResolveWithFailure() throws Exception
+   {
+      AbstractBundle unresolvable = bundleManager.installBundle("concurrent://unresolvable", getUnresolvableContent());
+
+      List<AbstractBundle> requested = new ArrayList<AbstractBundle>(bundles);
+      requested.add(requested.size() / 2, unresolvable);
+
+      List<Throwable> failures = resolveConcurrently(requested);
+      assertEquals(THREAD_COUNT, failures.size());
+      for (Throwable aux : failures)
+         assertTrue("BundleException expected: " + aux, aux instanceof BundleException);
+
+      // The failure is reported for its own bundle only
+      assertEquals(Bundle.INSTALLED, unresolvable.getState());
+      for (AbstractBundle aux : bundles)
+         assertEquals(aux.getSymbolicName(), Bundle.RESOLVED, aux.getState());
+   }
+
+   // Every thread resolves every bundle, each in its own order. A resolve call must only
+   // return when the bundle is RESOLVED, also when another thread runs the resolver.
+   private List<Throwable> resolveConcurrently(final List<AbstractBundle> requested) throws InterruptedException
+   {
+      final ResolverPlugin resolverPlugin = bundleManager.getPlugin(ResolverPlugin.class);
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < THREAD_COUNT; i++)
+      {
+         final int offset = i * requested.size() / THREAD_COUNT;
+         Thread thread = new Thread("ConcurrentResolve-" + i)
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  startLatch.await();
+               }
+               catch (InterruptedException ex)
+               {
+                  failures.add(ex);
+                  return;
+               }
+               for (int j = 0; j < requested.size(); j++)
+               {
+                  AbstractBundle bundle = requested.get((offset + j) % requested.size());
+                  try
+                  {
+                     resolverPlugin.resolve(bundle.getResolverModule());
+                     if (bundle.getState() != Bundle.RESOLVED)
+                        failures.add(new IllegalStateException("Bundle not resolved: " + bundle));
+                  }
+                  catch (Throwable th)
+                  {
+                     failures.add(th);
+                  }
+               }
+            }
+         };
+         thread.start();
+         threads.add(thread);
+      }
+
+      startLatch.countDown();
+      for (Thread thread : threads)
+      {
+         thread.join(60000);
+         if (thread.isAlive())
+            fail("Resolve did not complete: " + thread.getName());
+      }
+      return failures;
+   }
+
+   private ByteArrayInputStream getUnresolvableContent() throws Exception
+   {
+      Manifest manifest = new Manifest();
+      Attributes attributes = manifest.getMainAttributes();
+      attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+      attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, "unresolvable");
+      attributes.putValue(Constants.IMPORT_PACKAGE, "org.jboss.test.osgi.container.missing");
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      JarOutputStream jos = new JarOutputStream(baos, manifest);
+      jos.close();
+      return new ByteArrayInputStream(baos.toByteArray());
+   }
+}
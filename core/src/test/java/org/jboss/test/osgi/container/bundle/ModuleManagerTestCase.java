@@ -27,9 +27,6 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
-import java.lang.reflect.Field;
-import java.util.Map;
-
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleSpec;
 import org.jboss.osgi.container.bundle.AbstractBundle;
@@ -63,20 +60,20 @@ public class ModuleManagerTestCase
             super(mock(BundleManager.class));
          }
 
-         @SuppressWarnings({ "rawtypes", "unchecked" })
          AbstractBundle createModule(int revision) throws Exception
          {
-            ModuleIdentifier mi = new ModuleIdentifier("test", "test", "0.0.0-rev" + revision);
-            Field mf = ModuleManager.class.getDeclaredField("modules");
-            mf.setAccessible(true);
-            Map modules = (Map)mf.get(this);
+            return createModule("0.0.0", revision);
+         }
 
+         AbstractBundle createModule(String version, int revision) throws Exception
+         {
+            ModuleIdentifier mi = new ModuleIdentifier("test", "test", version + "-rev" + revision);
             AbstractBundle bundleState = mock(AbstractBundle.class);
             AbstractRevision bundleRev = mock(AbstractRevision.class);
             Mockito.when(bundleRev.getBundleState()).thenReturn(bundleState);
             ModuleSpec moduleSpec = ModuleSpec.build(mi).create();
             ModuleManager.ModuleHolder holder = new ModuleManager.ModuleHolder(bundleRev, moduleSpec);
-            modules.put(mi, holder);
+            addModuleHolder(holder);
             return bundleState;
          }
       };
@@ -91,6 +88,17 @@ public class ModuleManagerTestCase
       assertEquals("Should have returned the object associated with revision 0", ex1, mm.getBundleState(new ModuleIdentifier("test", "test", "0.0.0-rev0")));
       assertEquals("Should have returned the object associated with revision 1", ex2, mm.getBundleState(new ModuleIdentifier("test", "test", "0.0.0-rev1")));
       assertNull("There is no module registered with revision 2", mm.getBundleState(new ModuleIdentifier("test", "test", "0.0.0-rev2")));
+
+      // Prefer the highest revision of the requested version
+      Object ex4 = mm.createModule("1.0.0", 2);
+      assertEquals("Should return the highest revision of 1.0.0", ex4, mm.getBundleState(new ModuleIdentifier("test", "test", "1.0.0")));
+      assertEquals("Should return the highest revision of 0.0.0", ex3, mm.getBundleState(new ModuleIdentifier("test", "test", "0.0.0")));
+      assertEquals("Should fall back to the highest revision", ex3, mm.getBundleState(new ModuleIdentifier("test", "test", "2.0.0")));
+
+      // Removed modules are no longer found
+      mm.removeModule(new ModuleIdentifier("test", "test", "0.0.0-rev3"));
+      assertEquals("Should return the next highest revision", ex2, mm.getBundleState(new ModuleIdentifier("test", "test", "0.0.0")));
+      assertNull("Unknown artifact", mm.getBundleState(new ModuleIdentifier("test", "other", "0.0.0")));
    }
 
    /** 
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.osgi.container.loading.ClassDefineTimer;
+import org.junit.Test;
+
+/**
+ * Test the {@link ClassDefineTimer}
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassDefineTimerTestCase
+{
+   @Test
+   public void testNestedDefine() throws Exception
+   {
+      ClassDefineTimer timer = new ClassDefineTimer();
+      timer.defineStarted();
+      timer.defineStarted();
+      Thread.sleep(50);
+      long nested = timer.defineCompleted();
+      long outer = timer.defineCompleted();
+      assertTrue("Nested define time: " + nested, nested >= 50000000L);
+      assertTrue("Outer define time: " + outer, outer < nested);
+      assertEquals(0, timer.getDepth());
+      assertEquals(-1, timer.defineCompleted());
+   }
+
+   @Test
+   public void testFailedDefine() throws Exception
+   {
+      ClassDefineTimer timer = new ClassDefineTimer();
+      int depth = timer.getDepth();
+      try
+      {
+         timer.defineStarted();
+         throw new ClassFormatError("Truncated class file");
+      }
+      catch (ClassFormatError ex)
+      {
+         // expected
+      }
+      finally
+      {
+         timer.reset(depth);
+      }
+      assertEquals(0, timer.getDepth());
+
+      // The failed define does not take the time of the next define
+      timer.defineStarted();
+      Thread.sleep(50);
+      assertTrue(timer.defineCompleted() >= 50000000L);
+      assertEquals(0, timer.getDepth());
+   }
+
+   @Test
+   public void testFailedNestedDefine() throws Exception
+   {
+      ClassDefineTimer timer = new ClassDefineTimer();
+      timer.defineStarted();
+      int depth = timer.getDepth();
+      timer.defineStarted();
+      timer.reset(depth);
+      assertEquals(1, timer.getDepth());
+      assertTrue(timer.defineCompleted() >= 0);
+      assertEquals(0, timer.getDepth());
+   }
+}
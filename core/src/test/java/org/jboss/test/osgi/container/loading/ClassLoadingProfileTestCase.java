@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.AbstractUserBundle;
+import org.jboss.osgi.container.bundle.BundleManager;
+import org.jboss.osgi.container.bundle.FrameworkImpl;
+import org.jboss.osgi.container.loading.ClassLoadingMetrics;
+import org.jboss.osgi.container.plugin.ClassLoadingProfilePlugin;
+import org.jboss.osgi.container.plugin.ResolverPlugin;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.container.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.container.loading.subB.SimpleService;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Test the recording and replay of class loading profiles.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class ClassLoadingProfileTestCase
+{
+   private static final String SYMBOLIC_NAME = "profile-bundle";
+
+   @Test
+   public void testRecordAndReplay() throws Exception
+   {
+      File targetDir = new File("./target/classloading-profile/replay");
+      File bundleFile = createBundle(targetDir);
+      recordProfile(targetDir, bundleFile);
+
+      // The auto start bundle is resolved during startup and its profile is replayed
+      Map<String, String> props = getFrameworkProperties(targetDir, null);
+      props.put(ClassLoadingProfilePlugin.PROP_CLASSLOADING_PROFILE_REPLAY, "true");
+      props.put("org.jboss.osgi.auto.start.profile", bundleFile.toURI().toURL().toExternalForm());
+
+      BundleManager bundleManager = new BundleManager(props);
+      FrameworkImpl framework = new FrameworkImpl(bundleManager);
+      framework.start();
+      try
+      {
+         ClassLoadingMetrics metrics = getMetrics(getBundle(bundleManager));
+
+         // The activator defines one class, the replay defines the service
+         long timeout = System.currentTimeMillis() + 10000;
+         while (metrics.getClassesDefined() < 2 && System.currentTimeMillis() < timeout)
+            Thread.sleep(50);
+
+         assertEquals(2, metrics.getClassesDefined());
+      }
+      finally
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+
+   @Test
+   public void testNoReplayAfterStartup() throws Exception
+   {
+      File targetDir = new File("./target/classloading-profile/no-replay");
+      File bundleFile = createBundle(targetDir);
+      recordProfile(targetDir, bundleFile);
+
+      Map<String, String> props = getFrameworkProperties(targetDir, null);
+      props.put(ClassLoadingProfilePlugin.PROP_CLASSLOADING_PROFILE_REPLAY, "true");
+
+      BundleManager bundleManager = new BundleManager(props);
+      FrameworkImpl framework = new FrameworkImpl(bundleManager);
+      framework.start();
+      try
+      {
+         // A bundle that is resolved after the framework has started is not replayed
+         Bundle bundle = bundleManager.getSystemContext().installBundle(bundleFile.toURI().toURL().toExternalForm());
+         ResolverPlugin resolverPlugin = bundleManager.getPlugin(ResolverPlugin.class);
+         resolverPlugin.resolve(AbstractBundle.assertBundleState(bundle).getResolverModule());
+         assertEquals(Bundle.RESOLVED, bundle.getState());
+
+         Thread.sleep(500);
+         assertEquals(0, getMetrics(bundle).getClassesDefined());
+      }
+      finally
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+
+   // Record the classes that are loaded while the profile is being recorded
+   private void recordProfile(File targetDir, File bundleFile) throws Exception
+   {
+      Map<String, String> props = getFrameworkProperties(targetDir, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+      props.put(ClassLoadingProfilePlugin.PROP_CLASSLOADING_PROFILE, "60");
+
+      BundleManager bundleManager = new BundleManager(props);
+      FrameworkImpl framework = new FrameworkImpl(bundleManager);
+      framework.start();
+      try
+      {
+         Bundle bundle = bundleManager.getSystemContext().installBundle(bundleFile.toURI().toURL().toExternalForm());
+         assertNotNull(bundle.loadClass(SimpleService.class.getName()));
+      }
+      finally
+      {
+         // The profiles are written when the recording stops
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+
+      List<File> profileFiles = new ArrayList<File>();
+      findFiles(new File(targetDir, "store"), "classloading.profile", profileFiles);
+      assertEquals(1, profileFiles.size());
+
+      List<String> classNames = new ArrayList<String>();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(profileFiles.get(0)), "UTF-8"));
+      try
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+            classNames.add(line.trim());
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertTrue("Recorded: " + classNames, classNames.contains(SimpleService.class.getName()));
+   }
+
+   private Map<String, String> getFrameworkProperties(File targetDir, String storageClean)
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, new File(targetDir, "store").getAbsolutePath());
+      if (storageClean != null)
+         props.put(Constants.FRAMEWORK_STORAGE_CLEAN, storageClean);
+      return props;
+   }
+
+   private File createBundle(File targetDir) throws Exception
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, SYMBOLIC_NAME);
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleActivator(SimpleActivator.class);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+
+      File bundleFile = new File(targetDir, SYMBOLIC_NAME + ".jar");
+      bundleFile.getParentFile().mkdirs();
+      FileOutputStream fos = new FileOutputStream(bundleFile);
+      VFSUtils.copyStream(archive.as(ZipExporter.class).exportZip(), fos);
+      fos.close();
+      return bundleFile;
+   }
+
+   private Bundle getBundle(BundleManager bundleManager)
+   {
+      for (Bundle aux : bundleManager.getSystemContext().getBundles())
+      {
+         if (SYMBOLIC_NAME.equals(aux.getSymbolicName()))
+            return aux;
+      }
+      throw new IllegalStateException("Cannot find bundle: " + SYMBOLIC_NAME);
+   }
+
+   private ClassLoadingMetrics getMetrics(Bundle bundle)
+   {
+      return AbstractUserBundle.assertBundleState(bundle).getCurrentRevision().getClassLoadingMetrics();
+   }
+
+   private static void findFiles(File dir, String name, List<File> result)
+   {
+      File[] children = dir.listFiles();
+      if (children == null)
+         return;
+
+      for (File child : children)
+      {
+         if (child.isDirectory())
+            findFiles(child, name, result);
+         else if (name.equals(child.getName()))
+            result.add(child);
+      }
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.osgi.container.loading.EntryIndex;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.container.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.container.loading.subB.SimpleService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the bundle entry index.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class EntryIndexTestCase
+{
+   private static final String SUBA = "org/jboss/test/osgi/container/loading/subA/";
+   private static final String SUBB = "org/jboss/test/osgi/container/loading/subB/";
+
+   private static File archiveFile;
+   private static VirtualFile rootFile;
+
+   @BeforeClass
+   public static void beforeClass() throws Exception
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "simple-bundle");
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.addResource("log4j.xml");
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            return builder.openStream();
+         }
+      });
+
+      archiveFile = File.createTempFile("simple-bundle", ".jar");
+      archiveFile.deleteOnExit();
+      FileOutputStream fos = new FileOutputStream(archiveFile);
+      VFSUtils.copyStream(archive.as(ZipExporter.class).exportZip(), fos);
+      fos.close();
+
+      rootFile = AbstractVFS.getRoot(archiveFile.toURI().toURL());
+   }
+
+   @AfterClass
+   public static void afterClass() throws Exception
+   {
+      rootFile.close();
+      archiveFile.delete();
+   }
+
+   @Test
+   public void testEntries() throws Exception
+   {
+      EntryIndex index = EntryIndex.create(rootFile);
+      assertTrue(index.hasEntry(""));
+      assertTrue(index.hasEntry("/log4j.xml"));
+      assertTrue(index.hasEntry("META-INF"));
+      assertTrue(index.hasEntry("META-INF/"));
+      assertFalse(index.hasEntry("DoesNotExist"));
+      assertTrue(index.getSize("log4j.xml") > 0);
+
+      assertEquals(Arrays.asList("log4j.xml"), index.getEntryPaths("log4j.xml"));
+      assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF"), index.getEntryPaths("/META-INF"));
+      assertNull(index.getEntryPaths("DoesNotExist"));
+
+      Set<String> paths = index.getLocalPaths();
+      assertEquals(4, paths.size());
+      assertTrue(paths.contains(SUBA.substring(0, SUBA.length() - 1)));
+      assertTrue(paths.contains(""));
+   }
+
+   @Test
+   public void testFindEntries() throws Exception
+   {
+      EntryIndex index = EntryIndex.create(rootFile);
+      assertEquals(Arrays.asList("log4j.xml"), index.findEntries("", "*.xml", false));
+      assertEquals(Arrays.asList("log4j.xml"), index.findEntries("/", "log4j*", true));
+      assertEquals(Arrays.asList("META-INF/MANIFEST.MF"), index.findEntries("META-INF", null, false));
+
+      Set<String> expected = new HashSet<String>();
+      expected.add(SUBA + "SimpleActivator.class");
+      expected.add(SUBB + "SimpleService.class");
+      assertEquals(expected, new HashSet<String>(index.findEntries("org", "Simple*", true)));
+      assertTrue(index.findEntries("org", "Simple*", false).isEmpty());
+      assertTrue(index.findEntries("", "META-INF", true).isEmpty());
+      assertTrue(index.findEntries("DoesNotExist", "*", true).isEmpty());
+   }
+
+   @Test
+   public void testStoreLoad() throws Exception
+   {
+      EntryIndex index = EntryIndex.create(rootFile);
+      File indexFile = File.createTempFile("entries", ".index");
+      try
+      {
+         index.store(indexFile);
+         EntryIndex loaded = EntryIndex.load(indexFile);
+         List<String> expected = index.getEntryPaths("");
+         assertEquals(expected, loaded.getEntryPaths(""));
+         assertEquals(index.getSize("log4j.xml"), loaded.getSize("log4j.xml"));
+         assertEquals(index.getLocalPaths(), loaded.getLocalPaths());
+      }
+      finally
+      {
+         indexFile.delete();
+      }
+   }
+}
@@ -21,10 +21,13 @@
  */
 package org.jboss.test.osgi.container.loading;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.net.URL;
 import java.util.HashMap;
 
 import javax.management.MBeanServer;
@@ -129,4 +132,20 @@ public class FrameworkClassLoaderTestCase
          //expected
       }
    }
-}
\ No newline at end of file
+   
+   @Test
+   public void testLoadResourceSuccess() throws Exception
+   {
+      String resName = BundleActivator.class.getName().replace('.', '/') + ".class";
+      URL result = classLoader.getResource(resName);
+      assertNotNull("BundleActivator resource found", result);
+      assertEquals(result, classLoader.getResource(resName));
+   }
+   
+   @Test
+   public void testLoadResourceFail() throws Exception
+   {
+      String resName = CmdLineParser.class.getName().replace('.', '/') + ".class";
+      assertNull("CmdLineParser resource not found", classLoader.getResource(resName));
+   }
+}
@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.loading;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Collection;
+
+import org.jboss.modules.ClassSpec;
+import org.jboss.modules.Resource;
+import org.jboss.modules.ResourceLoader;
+import org.jboss.osgi.container.loading.JarFileResourceLoader;
+import org.jboss.osgi.container.loading.VirtualFileResourceLoader;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.container.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.container.loading.subB.SimpleService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the JAR file based bundle content loader.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class JarFileResourceLoaderTestCase
+{
+   private static File archiveFile;
+   private static VirtualFile rootFile;
+
+   @BeforeClass
+   public static void beforeClass() throws Exception
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "simple-bundle");
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.addResource("log4j.xml");
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleActivator(SimpleActivator.class);
+            builder.addExportPackages(SimpleService.class);
+            return builder.openStream();
+         }
+      });
+
+      archiveFile = File.createTempFile("simple-bundle", ".jar");
+      archiveFile.deleteOnExit();
+      FileOutputStream fos = new FileOutputStream(archiveFile);
+      VFSUtils.copyStream(archive.as(ZipExporter.class).exportZip(), fos);
+      fos.close();
+
+      rootFile = AbstractVFS.getRoot(archiveFile.toURI().toURL());
+   }
+
+   @AfterClass
+   public static void afterClass() throws Exception
+   {
+      rootFile.close();
+      archiveFile.delete();
+   }
+   
+   @Test
+   public void testClassSpec() throws Exception
+   {
+      ResourceLoader loader = new JarFileResourceLoader(rootFile, archiveFile);
+      ClassSpec result = loader.getClassSpec(SimpleActivator.class.getName());
+      assertNotNull("ClassSpec not null", result);
+
+      ClassSpec expected = new VirtualFileResourceLoader(rootFile).getClassSpec(SimpleActivator.class.getName());
+      assertArrayEquals(expected.getBytes(), result.getBytes());
+
+      assertNull(loader.getClassSpec("org.jboss.test.osgi.container.loading.subA.NotThere"));
+   }
+
+   @Test
+   public void testResource() throws Exception
+   {
+      ResourceLoader loader = new JarFileResourceLoader(rootFile, archiveFile);
+      Resource result = loader.getResource("META-INF/MANIFEST.MF");
+      assertNotNull("Resource not null", result);
+
+      result = loader.getResource("/log4j.xml");
+      assertNotNull("Resource not null", result);
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      VFSUtils.copyStream(result.openStream(), baos);
+      assertEquals(baos.size(), result.getSize());
+   }
+
+   @Test
+   public void testPaths() throws Exception
+   {
+      ResourceLoader loader = new JarFileResourceLoader(rootFile, archiveFile);
+      Collection<String> paths = loader.getPaths();
+      assertNotNull("Resource not null", paths);
+      assertEquals(4, paths.size());
+      assertTrue(paths.contains("org/jboss/test/osgi/container/loading/subA"));
+      assertTrue(paths.contains("org/jboss/test/osgi/container/loading/subB"));
+      assertTrue(paths.contains("META-INF"));
+      assertTrue(paths.contains(""));
+   }
+
+   @Test
+   public void testClose() throws Exception
+   {
+      JarFileResourceLoader loader = new JarFileResourceLoader(rootFile, archiveFile);
+      assertNotNull(loader.getClassSpec(SimpleActivator.class.getName()));
+
+      loader.close();
+      try
+      {
+         loader.getClassSpec(SimpleActivator.class.getName());
+         fail("IOException expected");
+      }
+      catch (IOException ex)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testInterruptedReader() throws Exception
+   {
+      JarFileResourceLoader loader = new JarFileResourceLoader(rootFile, archiveFile);
+      try
+      {
+         // An interrupted reader closes the shared channel
+         Thread.currentThread().interrupt();
+         try
+         {
+            loader.getClassSpec(SimpleActivator.class.getName());
+            fail("ClosedByInterruptException expected");
+         }
+         catch (ClosedByInterruptException ex)
+         {
+            // expected
+         }
+         assertTrue(Thread.interrupted());
+
+         // The next reader reopens the channel
+         assertNotNull(loader.getClassSpec(SimpleActivator.class.getName()));
+      }
+      finally
+      {
+         loader.close();
+      }
+   }
+}
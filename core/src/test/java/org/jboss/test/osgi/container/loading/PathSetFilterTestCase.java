@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.osgi.container.loading.PathSetFilter;
+import org.junit.Test;
+
+/**
+ * Test the {@link PathSetFilter}
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class PathSetFilterTestCase
+{
+   @Test
+   public void testAccept() throws Exception
+   {
+      PathSetFilter filter = new PathSetFilter(Arrays.asList("org/osgi/framework", "org/jboss/logging", "javax/management"));
+      assertTrue(filter.accept("org/osgi/framework"));
+      assertTrue(filter.accept("org/jboss/logging"));
+      assertTrue(filter.accept("javax/management"));
+      assertFalse(filter.accept("org/osgi"));
+      assertFalse(filter.accept("org/osgi/framework/launch"));
+      assertFalse(new PathSetFilter(Collections.<String> emptyList()).accept("org/osgi/framework"));
+   }
+
+   @Test
+   public void testEquals() throws Exception
+   {
+      PathSetFilter filterA = new PathSetFilter(Arrays.asList("org/osgi/framework", "org/jboss/logging"));
+      PathSetFilter filterB = new PathSetFilter(Arrays.asList("org/jboss/logging", "org/osgi/framework"));
+      PathSetFilter filterC = new PathSetFilter(Arrays.asList("org/jboss/logging"));
+      assertEquals(filterA, filterB);
+      assertEquals(filterA.hashCode(), filterB.hashCode());
+      assertFalse(filterA.equals(filterC));
+   }
+}
@@ -24,6 +24,7 @@ package org.jboss.test.osgi.container.loading;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
@@ -101,6 +102,7 @@ public class VirtualFileResourceLoaderTestCase
       ResourceLoader loader = new VirtualFileResourceLoader(rootFile);
       PackageSpec result = loader.getPackageSpec(SimpleActivator.class.getPackage().getName());
       assertNotNull("PackageSpec not null", result);
+      assertSame(result, loader.getPackageSpec(SimpleActivator.class.getPackage().getName()));
    }
 
    @Test
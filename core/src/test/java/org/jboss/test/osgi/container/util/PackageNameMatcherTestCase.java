@@ -0,0 +1,85 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.osgi.container.util.PackageNameMatcher;
+import org.junit.Test;
+
+/**
+ * Test the {@link PackageNameMatcher}
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class PackageNameMatcherTestCase
+{
+   @Test
+   public void testEmpty() throws Exception
+   {
+      PackageNameMatcher matcher = PackageNameMatcher.compile(Collections.<String> emptyList());
+      assertTrue("Empty", matcher.isEmpty());
+      assertFalse(matcher.matchesPackage("org.foo"));
+      assertFalse(matcher.matchesClass("org.foo.Bar"));
+   }
+
+   @Test
+   public void testMatchAll() throws Exception
+   {
+      PackageNameMatcher matcher = PackageNameMatcher.compile(Arrays.asList("*"));
+      assertFalse("Not empty", matcher.isEmpty());
+      assertTrue(matcher.matchesPackage("org.foo"));
+      assertTrue(matcher.matchesClass("org.foo.Bar"));
+      assertTrue(matcher.matchesClass("Bar"));
+   }
+
+   @Test
+   public void testExact() throws Exception
+   {
+      PackageNameMatcher matcher = PackageNameMatcher.compile(Arrays.asList("org.foo", "org.bar.baz"));
+      assertTrue(matcher.matchesPackage("org.foo"));
+      assertTrue(matcher.matchesClass("org.foo.Bar"));
+      assertTrue(matcher.matchesClass("org.bar.baz.Bar"));
+      assertFalse(matcher.matchesPackage("org"));
+      assertFalse(matcher.matchesPackage("org.foobar"));
+      assertFalse(matcher.matchesClass("org.foo.sub.Bar"));
+      assertFalse(matcher.matchesClass("org.bar.Bar"));
+   }
+
+   @Test
+   public void testWildcard() throws Exception
+   {
+      PackageNameMatcher matcher = PackageNameMatcher.compile(Arrays.asList("org.foo.*", "java.*"));
+      assertTrue(matcher.matchesPackage("org.foo"));
+      assertTrue(matcher.matchesPackage("org.foo.sub"));
+      assertTrue(matcher.matchesClass("org.foo.sub.Bar"));
+      assertTrue(matcher.matchesClass("java.lang.String"));
+      assertFalse(matcher.matchesPackage("org.foobar"));
+      assertFalse(matcher.matchesClass("org.Bar"));
+      assertFalse(matcher.matchesClass("javax.management.ObjectName"));
+   }
+}
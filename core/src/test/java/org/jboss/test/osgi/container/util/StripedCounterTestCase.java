@@ -0,0 +1,69 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jboss.osgi.container.util.StripedCounter;
+import org.junit.Test;
+
+/**
+ * Test the {@link StripedCounter}
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class StripedCounterTestCase
+{
+   @Test
+   public void testSingleThread() throws Exception
+   {
+      StripedCounter counter = new StripedCounter();
+      assertEquals(0, counter.sum());
+      counter.increment();
+      counter.add(41);
+      assertEquals(42, counter.sum());
+   }
+
+   @Test
+   public void testConcurrentUpdates() throws Exception
+   {
+      final StripedCounter counter = new StripedCounter();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               for (int j = 0; j < 10000; j++)
+                  counter.increment();
+            }
+         };
+         threads[i].start();
+      }
+      for (Thread thread : threads)
+         thread.join();
+
+      assertEquals(80000, counter.sum());
+   }
+}
@@ -0,0 +1,63 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.jboss.osgi.container.util.WeakInterner;
+import org.junit.Test;
+
+/**
+ * Test the {@link WeakInterner}
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 02-Aug-2010
+ */
+public class WeakInternerTestCase
+{
+   @Test
+   public void testIntern() throws Exception
+   {
+      WeakInterner<String> interner = new WeakInterner<String>();
+      String pathA = new String("org/osgi/framework");
+      String pathB = new String("org/osgi/framework");
+      assertNotSame(pathA, pathB);
+      assertSame(pathA, interner.intern(pathA));
+      assertSame(pathA, interner.intern(pathB));
+      assertEquals(1, interner.size());
+   }
+
+   @Test
+   public void testRelease() throws Exception
+   {
+      WeakInterner<String> interner = new WeakInterner<String>();
+      interner.intern(new String("org/osgi/framework"));
+      for (int i = 0; i < 10 && interner.size() > 0; i++)
+      {
+         System.gc();
+         Thread.sleep(10);
+      }
+      assertEquals(0, interner.size());
+   }
+}
@@ -30,6 +30,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,7 +40,11 @@ import java.util.List;
 import java.util.Set;
 
 import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
 import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
 import org.jboss.test.osgi.container.bundle.support.a.ObjectA;
 import org.jboss.test.osgi.container.bundle.support.a.ObjectA2;
 import org.jboss.test.osgi.container.bundle.support.x.ObjectX;
@@ -59,6 +64,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.Version;
 import org.osgi.service.packageadmin.ExportedPackage;
 import org.osgi.service.packageadmin.PackageAdmin;
@@ -585,6 +591,124 @@ public class PackageAdminTestCase extends OSGiFrameworkTest
       }
    }
 
+   @Test
+   public void testRefreshPackagesTransitive() throws Exception
+   {
+      // Bundle C imports from B, which imports from A. Fragment F is attached to B.
+      PackageAdmin pa = getPackageAdmin();
+      Bundle bundleA = installBundle(assembleArchive("exporter", "/bundles/package-admin/exporter", Exported.class));
+      Bundle bundleB = installBundle(assembleArchive("import-export", "/bundles/package-admin/import-export", ImportExport.class));
+      Bundle bundleC = installBundle(getIndirectImporter());
+      Bundle fragF = installBundle(getImportExportFragment());
+      SynchronousBundleListener listener = null;
+      try
+      {
+         bundleB.start();
+         bundleC.start();
+         assertBundleState(Bundle.ACTIVE, bundleB.getState());
+         assertBundleState(Bundle.ACTIVE, bundleC.getState());
+         assertBundleState(Bundle.RESOLVED, fragF.getState());
+         assertEquals(bundleB, pa.getHosts(fragF)[0]);
+
+         Class<?> importExport = bundleC.loadClass(ImportExport.class.getName());
+         assertSame(importExport, bundleB.loadClass(ImportExport.class.getName()));
+
+         final List<BundleEvent> events = Collections.synchronizedList(new ArrayList<BundleEvent>());
+         listener = new SynchronousBundleListener()
+         {
+            @Override
+            public void bundleChanged(BundleEvent event)
+            {
+               events.add(event);
+            }
+         };
+         getSystemContext().addBundleListener(listener);
+         getSystemContext().addFrameworkListener(this);
+
+         // Only refresh the low level exporter
+         pa.refreshPackages(new Bundle[] { bundleA });
+         assertFrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, getSystemContext().getBundle(0), null);
+
+         // The direct and the indirect importer were stopped, refreshed and restarted
+         for (Bundle bundle : new Bundle[] { bundleB, bundleC })
+         {
+            List<Integer> types = getEventTypes(events, bundle);
+            assertTrue("Stopped: " + bundle, types.contains(BundleEvent.STOPPED));
+            assertTrue("Unresolved: " + bundle, types.contains(BundleEvent.UNRESOLVED));
+            assertTrue("Restarted: " + bundle, types.lastIndexOf(BundleEvent.STARTED) > types.indexOf(BundleEvent.UNRESOLVED));
+            assertBundleState(Bundle.ACTIVE, bundle.getState());
+         }
+
+         // The indirect importer is wired to the new revision of B
+         Class<?> refreshed = bundleC.loadClass(ImportExport.class.getName());
+         assertNotSame("Should have loaded a new class", importExport, refreshed);
+         assertSame(refreshed, bundleB.loadClass(ImportExport.class.getName()));
+
+         // The fragment was refreshed and attached to B again
+         assertTrue("Fragment unresolved", getEventTypes(events, fragF).contains(BundleEvent.UNRESOLVED));
+         assertBundleState(Bundle.RESOLVED, fragF.getState());
+         assertEquals(bundleB, pa.getHosts(fragF)[0]);
+      }
+      finally
+      {
+         getSystemContext().removeFrameworkListener(this);
+         if (listener != null)
+            getSystemContext().removeBundleListener(listener);
+         fragF.uninstall();
+         bundleC.uninstall();
+         bundleB.uninstall();
+         bundleA.uninstall();
+      }
+   }
+
+   private List<Integer> getEventTypes(List<BundleEvent> events, Bundle bundle)
+   {
+      List<Integer> result = new ArrayList<Integer>();
+      synchronized (events)
+      {
+         for (BundleEvent event : events)
+         {
+            if (event.getBundle().equals(bundle))
+               result.add(event.getType());
+         }
+      }
+      return result;
+   }
+
+   private JavaArchive getIndirectImporter()
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "indirect-importer");
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addImportPackages(ImportExport.class);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getImportExportFragment()
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "import-export-fragment");
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addFragmentHost("ImportExport");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
    private Object getImportedFieldValue(Bundle bundleI) throws Exception
    {
       Class<?> iCls = bundleI.loadClass(Importing.class.getName());